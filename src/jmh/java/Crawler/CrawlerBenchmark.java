@@ -0,0 +1,163 @@
+package Crawler;
+
+import dbManager.dbManager;
+import org.bson.Document;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// End-to-end crawler throughput against SyntheticWebServer, no internet involved:
+//   ./gradlew crawlerBenchmark --args="--modes=ASYNC,BLOCKING --threads=10,50 --pages=5000"
+// Each run is a fresh Crawler with its own state suffix, fetching until --pages documents are
+// processed or the synthetic web is exhausted. The real DbWriterThread inserts into MongoDB, so the
+// harness needs a scratch database in MONGO_DB_NAME (or --db=name) and refuses to run against the
+// default one, where the synthetic pages would end up in the corpus. For every fetch mode and thread count it reports
+// pages/sec, p50/p99 fetch-to-store latency (server response sent -> insert acknowledged),
+// the largest frontier and the peak heap. --threads is the worker count for BLOCKING and the
+// in-flight limit for ASYNC. The site options are --hosts, --pagesPerHost, --pageBytes,
+// --fanOut, --crossHost, --private, --latencyMs, --latencySigma, --errorRate and --crawlDelay.
+public class CrawlerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseArgs(args);
+        SyntheticWebServer.Config site = new SyntheticWebServer.Config();
+        site.hosts = intOption(options, "hosts", site.hosts);
+        site.pagesPerHost = intOption(options, "pagesPerHost", site.pagesPerHost);
+        site.pageBytes = intOption(options, "pageBytes", site.pageBytes);
+        site.fanOut = intOption(options, "fanOut", site.fanOut);
+        site.crossHostShare = doubleOption(options, "crossHost", site.crossHostShare);
+        site.privateShare = doubleOption(options, "private", site.privateShare);
+        site.latencyMedianMs = intOption(options, "latencyMs", (int) site.latencyMedianMs);
+        site.latencySigma = doubleOption(options, "latencySigma", site.latencySigma);
+        site.errorRate = doubleOption(options, "errorRate", site.errorRate);
+        site.crawlDelaySeconds = doubleOption(options, "crawlDelay", site.crawlDelaySeconds);
+
+        String database = options.getOrDefault("db", CrawlerConfig.get("MONGO_DB_NAME", dbManager.DEFAULT_DB_NAME));
+        if (database.equals(dbManager.DEFAULT_DB_NAME)) {
+            System.err.println("Refusing to write synthetic pages into the " + database
+                    + " database, set MONGO_DB_NAME or --db to a scratch database");
+            System.exit(2);
+        }
+        System.setProperty("MONGO_DB_NAME", database);
+
+        int pages = intOption(options, "pages", 5000);
+        List<String> modes = Arrays.asList(options.getOrDefault("modes", "ASYNC,BLOCKING").split(","));
+        List<String> threadCounts = Arrays.asList(options.getOrDefault("threads", "10,50").split(","));
+
+        // the synthetic site is one big regular pattern per host, keep the trap limits out of the way
+        System.setProperty("CRAWLER_TRAP_PATTERN_LIMIT", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("CRAWLER_HOST_BUDGET", String.valueOf(Integer.MAX_VALUE));
+        System.setProperty("CRAWLER_MAX_PAGES", String.valueOf(pages));
+        CrawlerHttpClient.configureNetworking();
+
+        SyntheticWebServer server = new SyntheticWebServer(site);
+        server.start();
+        Path seeds = Files.createTempFile("falcony-bench-seeds", ".txt");
+        List<String> roots = new ArrayList<>();
+        for (int host = 0; host < site.hosts; host++) {
+            roots.add(server.rootUrl(host));
+        }
+        Files.write(seeds, roots);
+
+        System.out.println("Synthetic web: " + site.hosts + " hosts x " + site.pagesPerHost + " pages of "
+                + site.pageBytes + " bytes, fan-out " + site.fanOut + ", latency " + site.latencyMedianMs
+                + " ms median, error rate " + site.errorRate + ", port " + server.getPort());
+        List<String> results = new ArrayList<>();
+        String runId = Long.toString(System.currentTimeMillis(), 36);
+        try {
+            for (String mode : modes) {
+                for (String threads : threadCounts) {
+                    results.add(run(server, seeds, mode.trim().toUpperCase(), Integer.parseInt(threads.trim()),
+                            "_bench_" + runId + "_" + results.size()));
+                    System.out.println(server.stats());
+                }
+            }
+        } finally {
+            server.stop();
+            Files.deleteIfExists(seeds);
+        }
+
+        System.out.println();
+        System.out.println(String.format("%-8s %8s %8s %10s %10s %10s %10s %10s",
+                "mode", "threads", "pages", "pages/s", "p50 ms", "p99 ms", "frontier", "heap MB"));
+        results.forEach(System.out::println);
+        System.exit(0); // the crawler's pools and shutdown hooks are not meant for several runs per JVM
+    }
+
+    private static String run(SyntheticWebServer server, Path seeds, String mode, int threads, String stateSuffix)
+            throws Exception {
+        System.setProperty("CRAWLER_FETCH_MODE", mode);
+        System.setProperty("CRAWLER_THREADS", String.valueOf(threads));
+        System.setProperty("CRAWLER_MAX_IN_FLIGHT", String.valueOf(threads));
+        System.setProperty("CRAWLER_STATE_SUFFIX", stateSuffix);
+        System.out.println("=== " + mode + " with " + threads + (mode.equals("ASYNC") ? " in flight" : " threads"));
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        Crawler crawler = new Crawler();
+        crawler.setStoreListener(docs -> {
+            long now = System.nanoTime();
+            for (Document doc : docs) {
+                Long served = server.servedAt(doc.getString("url"));
+                if (served != null) latencies.add(now - served);
+            }
+        });
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        AtomicLong maxFrontier = new AtomicLong();
+        AtomicLong maxHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> {
+            maxFrontier.accumulateAndGet(crawler.getFrontierSize(), Math::max);
+            maxHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+        }, 0, 250, TimeUnit.MILLISECONDS);
+
+        long start = System.nanoTime();
+        crawler.startCrawl(seeds.toString());
+        double seconds = (System.nanoTime() - start) / 1e9;
+        sampler.shutdownNow();
+        crawler.close();
+
+        List<Long> sorted;
+        synchronized (latencies) {
+            sorted = new ArrayList<>(latencies);
+        }
+        Collections.sort(sorted);
+        return String.format("%-8s %8d %8d %10.1f %10.1f %10.1f %10d %10d",
+                mode, threads, sorted.size(), sorted.size() / seconds,
+                percentileMs(sorted, 0.50), percentileMs(sorted, 0.99), maxFrontier.get(), maxHeap.get() >> 20);
+    }
+
+    private static double percentileMs(List<Long> sortedNanos, double percentile) {
+        if (sortedNanos.isEmpty()) return 0;
+        int index = (int) Math.min(sortedNanos.size() - 1, Math.ceil(percentile * sortedNanos.size()) - 1);
+        return sortedNanos.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) continue;
+            int eq = arg.indexOf('=');
+            if (eq > 2) options.put(arg.substring(2, eq), arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private static int intOption(Map<String, String> options, String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+    private static double doubleOption(Map<String, String> options, String name, double defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+}
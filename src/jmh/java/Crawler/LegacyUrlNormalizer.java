@@ -0,0 +1,145 @@
+package Crawler;
+
+import org.jsoup.Jsoup;
+
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// The normalizeUrl implementation UrlNormalizer replaced, kept unchanged as the benchmark baseline
+public class LegacyUrlNormalizer {
+    private final Set<String> excludedParams;
+    // cache for normalized URLs to avoid re-normalizing
+    private final ConcurrentHashMap<String, String> urlNormalizeCache = new ConcurrentHashMap<>(10000);
+
+    public LegacyUrlNormalizer(Set<String> excludedParams) {
+        this.excludedParams = excludedParams;
+    }
+
+    public String normalize(String url, String baseUrl) {
+        // Check cache first
+        String cacheKey = url + "|" + (baseUrl == null ? "" : baseUrl);
+        String cached = urlNormalizeCache.get(cacheKey);
+        if (cached != null) {
+            return cached;
+        }
+
+        if (url == null || url.trim().isEmpty()) {
+            return null;
+        }
+
+
+
+
+        // Quick filters for common non-http URLs
+        if (url.startsWith("javascript:") || url.startsWith("mailto:") || url.startsWith("tel:") ||
+                url.startsWith("#") || url.startsWith("data:")) {
+            return null;
+        }
+
+        // Filter out certain file types
+        if (url.endsWith(".pdf") || url.endsWith(".jpg") || url.endsWith(".jpeg") ||
+                url.endsWith(".png") || url.endsWith(".gif") || url.endsWith(".css") ||
+                url.endsWith(".js") || url.endsWith(".zip") || url.endsWith(".mp4") ||
+                url.endsWith(".mp3")) {
+            return null;
+        }
+
+        // Sanitize input URL
+        url = url.replaceAll("\\?+", "?");
+
+        while (url.endsWith("?")) {
+            url = url.substring(0, url.length() - 1);
+        }
+
+        // Resolve relative URLs
+        if (!url.startsWith("http") && baseUrl != null && !baseUrl.isEmpty()) {
+            try {
+                org.jsoup.nodes.Document doc = Jsoup.parse("<a href=\"" + url + "\"></a>", baseUrl);
+                url = doc.select("a").first().absUrl("href");
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        // Parse and normalize URL
+        URI uri;
+        try {
+            uri = new URI(url).normalize();
+        } catch (Exception e) {
+            return null;
+        }
+
+
+        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : "http";
+        if (!scheme.equals("http") && !scheme.equals("https")) {
+            return null;
+        }
+
+        String host = uri.getHost() != null ? uri.getHost().toLowerCase() : "";
+        if (host.isEmpty()) {
+            return null;
+        }
+
+        int port = uri.getPort();
+        if ((port == 80 && "http".equals(scheme)) || (port == 443 && "https".equals(scheme))) {
+            port = -1;
+        }
+
+        String path = uri.getPath() != null ? uri.getPath() : "/";
+
+        ///  filter non english
+        String[] segments = path.split("/");
+        if (segments.length > 1) {
+            String langCode = segments[1].toLowerCase();
+            if (!langCode.startsWith("en")) {
+                return null;
+            }
+        }
+
+
+
+        String query = uri.getQuery();
+        String newQuery = null;
+
+        if (query != null && !query.isEmpty()) {
+            try {
+
+                StringBuilder queryBuilder = new StringBuilder();
+                boolean firstParam = true;
+
+                for (String param : query.split("&")) {
+                    String[] parts = param.split("=", 2);
+                    if (parts.length == 2 && !parts[0].isEmpty() && !excludedParams.contains(parts[0].toLowerCase())) {
+                        if (!firstParam) {
+                            queryBuilder.append('&');
+                        } else {
+                            firstParam = false;
+                        }
+                        queryBuilder.append(parts[0]).append('=').append(parts[1]);
+                    }
+                }
+
+                if (queryBuilder.length() > 0) {
+                    newQuery = queryBuilder.toString();
+                }
+            } catch (Exception e) {
+                newQuery = null;
+            }
+        }
+
+        try {
+            String normalizedUrl = new URI(scheme, null, host, port, path, newQuery, null).toString();
+            // Cache the result
+            if (urlNormalizeCache.size() < 10000) {
+                urlNormalizeCache.put(cacheKey, normalizedUrl);
+            }
+
+            normalizedUrl.replace("?", "");
+
+            return normalizedUrl;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
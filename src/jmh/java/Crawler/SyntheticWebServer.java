@@ -0,0 +1,228 @@
+package Crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Local HTTP server that plays a whole synthetic web for the crawler benchmark.
+// Every host is a loopback address (127.0.x.y, all routed to lo on Linux) on one port, so the
+// crawler sees distinct hosts with their own politeness slots and robots.txt. Page n of a host
+// links to fanOut other pages, crossHostShare of them on other hosts and privateShare of them
+// under the robots.txt-disallowed /en/private/. Pages live under /en/ because the crawler only
+// follows URLs whose first path segment names an English section. The graph and the page text are derived from the
+// page id, so every run sees the same web; latency and errors are random per request.
+public class SyntheticWebServer {
+    public static class Config {
+        int hosts = 50;
+        int pagesPerHost = 2000;
+        int pageBytes = 20_000;
+        int fanOut = 20;
+        double crossHostShare = 0.2;
+        double privateShare = 0.05;
+        long latencyMedianMs = 50;
+        double latencySigma = 0.5;   // lognormal, 0 gives a constant latency
+        double errorRate = 0.01;     // share of page requests answered with 500
+        double crawlDelaySeconds = 0; // Crawl-delay in robots.txt, 0 leaves it out
+    }
+
+    private static final String[] WORDS = buildVocabulary();
+
+    private final Config config;
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "synthetic-web");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // "host:port/path" -> time the response was sent, for fetch-to-store latency
+    private final Map<String, Long> servedAt = new ConcurrentHashMap<>();
+    private final AtomicLong pagesServed = new AtomicLong();
+    private final AtomicLong errorsServed = new AtomicLong();
+    private final AtomicLong robotsServed = new AtomicLong();
+    private final AtomicLong privateFetched = new AtomicLong(); // robots.txt violations
+
+    public SyntheticWebServer(Config config) throws IOException {
+        this.config = config;
+        this.server = HttpServer.create(new InetSocketAddress(0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(handlers);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlers.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String hostName(int host) {
+        return "127.0." + (host / 250) + "." + (host % 250 + 1);
+    }
+
+    public String rootUrl(int host) {
+        return "http://" + hostName(host) + ":" + getPort() + "/";
+    }
+
+    public Long servedAt(String url) {
+        return servedAt.get(key(URI.create(url)));
+    }
+
+    public String stats() {
+        return String.format("server: %d pages, %d errors, %d robots.txt, %d disallowed fetches",
+                pagesServed.get(), errorsServed.get(), robotsServed.get(), privateFetched.get());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getPath();
+            if (path.equals("/robots.txt")) {
+                robotsServed.incrementAndGet();
+                String robots = "User-agent: *\nDisallow: /en/private/\n"
+                        + (config.crawlDelaySeconds > 0 ? "Crawl-delay: " + config.crawlDelaySeconds + "\n" : "");
+                send(exchange, 200, "text/plain", robots);
+                return;
+            }
+
+            int host = hostIndex(exchange.getRequestHeaders().getFirst("Host"));
+            int page = pageIndex(path);
+            if (host < 0 || page < 0) {
+                send(exchange, 404, "text/html", "<html lang=\"en\"><body>not found</body></html>");
+                return;
+            }
+            if (path.startsWith("/en/private/")) {
+                privateFetched.incrementAndGet();
+            }
+
+            SplittableRandom random = new SplittableRandom();
+            sleep(config.latencyMedianMs * Math.exp(config.latencySigma * gaussian(random)));
+            if (random.nextDouble() < config.errorRate) {
+                errorsServed.incrementAndGet();
+                send(exchange, 500, "text/html", "<html lang=\"en\"><body>error</body></html>");
+                return;
+            }
+
+            String body = page(host, page);
+            servedAt.put(hostName(host) + ":" + getPort() + path, System.nanoTime());
+            pagesServed.incrementAndGet();
+            send(exchange, 200, "text/html; charset=utf-8", body);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private String page(int host, int page) {
+        long id = (long) host * config.pagesPerHost + page;
+        Random graph = new Random(id);
+        StringBuilder html = new StringBuilder(config.pageBytes + 2048);
+        html.append("<!DOCTYPE html><html lang=\"en\"><head><title>Site ").append(host)
+                .append(" page ").append(page).append("</title></head><body><h1>Page ").append(page)
+                .append(" of site ").append(host).append("</h1><ul>");
+
+        for (int i = 0; i < config.fanOut; i++) {
+            int targetHost = graph.nextDouble() < config.crossHostShare ? graph.nextInt(config.hosts) : host;
+            int targetPage = graph.nextInt(config.pagesPerHost);
+            String dir = graph.nextDouble() < config.privateShare ? "/en/private/" : "/en/page/";
+            html.append("<li><a href=\"http://").append(hostName(targetHost)).append(':').append(getPort())
+                    .append(dir).append(targetPage).append("\">link ").append(i).append("</a></li>");
+        }
+        html.append("</ul>");
+
+        // text differs from page to page, so near-duplicate detection doesn't drop pages
+        SplittableRandom text = new SplittableRandom(id * 31 + 7);
+        while (html.length() < config.pageBytes) {
+            html.append("<p>");
+            for (int w = 0; w < 60; w++) {
+                html.append(WORDS[text.nextInt(WORDS.length)]).append(' ');
+            }
+            html.append("</p>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    private int hostIndex(String hostHeader) {
+        if (hostHeader == null) return -1;
+        String[] parts = hostHeader.split(":")[0].split("\\.");
+        if (parts.length != 4 || !parts[0].equals("127")) return -1;
+        try {
+            int host = Integer.parseInt(parts[2]) * 250 + Integer.parseInt(parts[3]) - 1;
+            return host >= 0 && host < config.hosts ? host : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int pageIndex(String path) {
+        if (path.equals("/")) return 0;
+        if (!path.startsWith("/en/page/") && !path.startsWith("/en/private/")) return -1;
+        int slash = path.lastIndexOf('/');
+        try {
+            int page = Integer.parseInt(path.substring(slash + 1));
+            return page >= 0 && page < config.pagesPerHost ? page : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String key(URI uri) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        return uri.getHost() + ":" + uri.getPort() + path;
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static void sleep(double millis) {
+        try {
+            Thread.sleep((long) millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static double gaussian(SplittableRandom random) {
+        // Box-Muller, SplittableRandom has no nextGaussian on Java 17
+        double u = 1.0 - random.nextDouble();
+        double v = random.nextDouble();
+        return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+    }
+
+    private static String[] buildVocabulary() {
+        String[] stems = {"match", "goal", "league", "player", "season", "club", "team", "score", "cup", "final",
+                "coach", "stadium", "transfer", "injury", "record", "derby", "title", "squad", "keeper", "striker"};
+        String[] suffixes = {"", "s", "ed", "ing", "er", "ly", "ness", "ment", "al", "ive"};
+        String[] words = new String[stems.length * suffixes.length];
+        int i = 0;
+        for (String stem : stems) {
+            for (String suffix : suffixes) {
+                words[i++] = stem + suffix;
+            }
+        }
+        return words;
+    }
+}
@@ -0,0 +1,107 @@
+package Crawler;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+// Links/sec of one core for the old and the new normalizer: ./gradlew jmh
+// The link pool is much larger than either cache, like a real crawl where most links are new.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(1)
+public class UrlNormalizerBenchmark {
+    private static final int POOL_SIZE = 200_000;
+    private static final int BATCH = 1024;
+    private static final Set<String> EXCLUDED = Set.of("session", "utm_source", "utm_medium", "utm_campaign", "ref", "fbclid");
+    private static final String[] HOSTS = {
+            "https://www.fifa.com", "https://www.uefa.com", "https://www.espn.com", "http://en.wikipedia.org",
+            "https://www.bbc.com", "https://news.example.org:443", "http://Blog.Example.COM:8080"
+    };
+
+    private String[] links;
+    private String[] bases;
+    private int next;
+
+    private LegacyUrlNormalizer legacy;
+    private UrlNormalizer cached;
+    private UrlNormalizer uncached;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        links = new String[POOL_SIZE];
+        bases = new String[POOL_SIZE];
+        for (int i = 0; i < POOL_SIZE; i++) {
+            String host = HOSTS[random.nextInt(HOSTS.length)];
+            bases[i] = host + "/en/section-" + random.nextInt(50) + "/article-" + random.nextInt(1000) + ".html";
+            links[i] = link(random, host, i);
+        }
+        legacy = new LegacyUrlNormalizer(EXCLUDED);
+        cached = new UrlNormalizer(EXCLUDED, 100_000);
+        uncached = new UrlNormalizer(EXCLUDED, 0);
+    }
+
+    // Mix of what pages link to: mostly absolute links (PageProcessor passes absUrl), some relative
+    // ones, tracking parameters, fragments, dot segments and links the crawler rejects
+    private static String link(Random random, String host, int i) {
+        switch (random.nextInt(10)) {
+            case 0:
+                return "../related/story-" + i + "?id=" + i + "&utm_source=home";
+            case 1:
+                return "/en/news/" + i + "#comments";
+            case 2:
+                return host + "/en/./topics/../teams/" + i + "/squad";
+            case 3:
+                return host + "/en/search?q=world%20cup+" + i + "&session=abc" + i + "&page=2";
+            case 4:
+                return host + "/images/photo-" + i + ".jpg";
+            case 5:
+                return "mailto:editor" + i + "@example.com";
+            case 6:
+                return host + "/fr/actualites/" + i;
+            default:
+                return host + "/en/article/" + i + "/story-title-" + random.nextInt(100000);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void legacy(Blackhole bh) {
+        int start = advance();
+        for (int i = start; i < start + BATCH; i++) {
+            bh.consume(legacy.normalize(links[i], bases[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void singlePassCached(Blackhole bh) {
+        int start = advance();
+        for (int i = start; i < start + BATCH; i++) {
+            bh.consume(cached.normalize(links[i], bases[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void singlePassUncached(Blackhole bh) {
+        int start = advance();
+        for (int i = start; i < start + BATCH; i++) {
+            bh.consume(uncached.normalize(links[i], bases[i]));
+        }
+    }
+
+    private int advance() {
+        int start = next;
+        next += BATCH;
+        if (next + BATCH > POOL_SIZE) next = 0;
+        return start;
+    }
+}
@@ -0,0 +1,134 @@
+package Crawler;
+
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking fetch path (CRAWLER_FETCH_MODE=ASYNC).
+// A single dispatcher thread takes ready URLs from the frontier and starts sendAsync requests,
+// up to maxInFlight at once. Finished bodies are parsed on a pool sized to the CPU count,
+// so network waits never hold a parsing thread.
+public class AsyncFetchEngine {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+    private static final int MAX_BODY_SIZE = 1_000_000; // 1MB, same as the blocking path
+    private static final int ROBOTS_THREADS = 32;
+
+    private final Frontier frontier;
+    private final AtomicInteger pageCount;
+    private final int maxPages;
+    private final PageProcessor processor;
+    private final int maxInFlight;
+    private final Semaphore inFlight;
+
+    private final CrawlerHttpClient httpClient;
+    private final ExecutorService parsePool;
+    private final ExecutorService robotsPool; // robots.txt lookups may block on the first request to a host
+
+    public AsyncFetchEngine(Frontier frontier, AtomicInteger pageCount, int maxPages,
+                            PageProcessor processor, int maxInFlight) {
+        this.frontier = frontier;
+        this.pageCount = pageCount;
+        this.maxPages = maxPages;
+        this.processor = processor;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.parsePool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        this.robotsPool = Executors.newFixedThreadPool(ROBOTS_THREADS);
+        this.httpClient = CrawlerHttpClient.shared();
+    }
+
+    // Dispatches until maxPages is reached or the thread is interrupted, then waits for in-flight fetches
+    public void run() {
+        System.out.println("Async fetch engine started with " + maxInFlight + " concurrent fetches");
+        try {
+            while (!Thread.currentThread().isInterrupted() && pageCount.get() < maxPages) {
+                inFlight.acquire();
+                String url = frontier.poll(1, TimeUnit.SECONDS);
+                if (url == null) {
+                    inFlight.release();
+                    if (frontier.isDrained()) {
+                        break; // every queued URL was fetched and produced no new links
+                    }
+                    continue;
+                }
+                dispatch(url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            awaitInFlight();
+            shutdown();
+        }
+    }
+
+    private void dispatch(String url) {
+        CompletableFuture
+                .supplyAsync(() -> processor.shouldFetch(url), robotsPool)
+                .thenCompose(allowed -> allowed ? fetch(url) : CompletableFuture.completedFuture(null))
+                .thenAcceptAsync(page -> {
+                    if (page == null || pageCount.get() >= maxPages) return;
+                    try {
+                        processor.process(page);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }, parsePool)
+                .whenComplete((ignored, error) -> {
+                    if (error != null) {
+                        System.err.println("Failed to fetch: " + url + " - " + unwrap(error).getMessage());
+                    }
+                    frontier.release(url);
+                    inFlight.release();
+                });
+    }
+
+    private CompletableFuture<FetchedPage> fetch(String url) {
+        long start = System.currentTimeMillis();
+        // conditional GET for pages stored by an earlier crawl
+        return httpClient.fetchPageAsync(url, processor.conditionalHeaders(url),
+                        frontier.fetchTimeout(url, REQUEST_TIMEOUT), MAX_BODY_SIZE)
+                .whenComplete((page, error) -> {
+                    if (page != null) {
+                        frontier.reportFetch(url, System.currentTimeMillis() - start, page.getStatusCode());
+                    } else if (!(unwrap(error) instanceof IllegalArgumentException) && !notArchived(error)) {
+                        // timeouts and refused connections count against the host
+                        frontier.reportFetch(url, System.currentTimeMillis() - start, -1);
+                    }
+                });
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        return error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+    }
+
+    // a replay miss, the live crawl never fetched the URL so the host isn't at fault
+    private static boolean notArchived(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof WarcReplay.NotArchivedException
+                || cause instanceof UncheckedIOException && cause.getCause() instanceof WarcReplay.NotArchivedException;
+    }
+
+    private void awaitInFlight() {
+        try {
+            if (!inFlight.tryAcquire(maxInFlight, 60, TimeUnit.SECONDS)) {
+                System.err.println("Async fetch engine stopped with fetches still in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void shutdown() {
+        robotsPool.shutdown();
+        parsePool.shutdown();
+        try {
+            if (!parsePool.awaitTermination(30, TimeUnit.SECONDS)) {
+                parsePool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            parsePool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
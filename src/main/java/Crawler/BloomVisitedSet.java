@@ -0,0 +1,255 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Scalable Bloom filter over 64-bit URL fingerprints (Almeida et al.).
+// When the newest stage reaches its capacity a new stage with twice the capacity and half the
+// false positive rate is added, so the overall rate stays under the configured target.
+// A false positive means a new URL is treated as visited and never crawled.
+public class BloomVisitedSet implements VisitedSet {
+    private static final int FILE_MAGIC = 0x464C4231; // "FLB1"
+    private static final double TIGHTENING_RATIO = 0.5;
+    private static final int GROWTH_FACTOR = 2;
+
+    private final double targetFpp;
+    private final long initialCapacity;
+    private final List<Stage> stages = new CopyOnWriteArrayList<>();
+    private final AtomicLong count = new AtomicLong();
+    private final Path file;
+
+    public BloomVisitedSet(long initialCapacity, double targetFpp, Path file) {
+        if (targetFpp <= 0 || targetFpp >= 1) {
+            throw new IllegalArgumentException("false positive rate must be in (0, 1): " + targetFpp);
+        }
+        this.initialCapacity = Math.max(1000, initialCapacity);
+        this.targetFpp = targetFpp;
+        this.file = file;
+        stages.add(new Stage(this.initialCapacity, targetFpp * (1 - TIGHTENING_RATIO)));
+    }
+
+    // Loads the filter from file if it exists, otherwise starts an empty one
+    public static BloomVisitedSet openOrCreate(String fileName, long initialCapacity, double targetFpp) {
+        Path path = Paths.get(fileName);
+        if (Files.exists(path)) {
+            try {
+                BloomVisitedSet loaded = load(path);
+                System.out.println("Loaded visited filter: " + loaded.stats());
+                return loaded;
+            } catch (IOException e) {
+                System.err.println("Failed to load visited filter " + fileName + ": " + e.getMessage());
+            }
+        }
+        return new BloomVisitedSet(initialCapacity, targetFpp, path);
+    }
+
+    private static class Stage {
+        final long capacity;
+        final long numBits;
+        final int numHashes;
+        final AtomicLongArray bits;
+        final AtomicLong inserted = new AtomicLong();
+        final AtomicLong setBits = new AtomicLong();
+
+        Stage(long capacity, double fpp) {
+            this.capacity = capacity;
+            long m = (long) Math.ceil(-capacity * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+            this.numBits = Math.max(64, (m + 63) / 64 * 64);
+            this.numHashes = Math.max(1, (int) Math.round((double) numBits / capacity * Math.log(2)));
+            this.bits = new AtomicLongArray((int) (numBits / 64));
+        }
+
+        Stage(long capacity, long numBits, int numHashes, long inserted, long setBits, long[] words) {
+            this.capacity = capacity;
+            this.numBits = numBits;
+            this.numHashes = numHashes;
+            this.bits = new AtomicLongArray(words);
+            this.inserted.set(inserted);
+            this.setBits.set(setBits);
+        }
+
+        boolean mightContain(long fingerprint) {
+            long h2 = UrlFingerprint.mix(fingerprint ^ 0x9e3779b97f4a7c15L);
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Math.floorMod(fingerprint + i * h2, numBits);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) return false;
+            }
+            return true;
+        }
+
+        // Sets the k bits, returns true if any of them was clear before
+        boolean put(long fingerprint) {
+            long h2 = UrlFingerprint.mix(fingerprint ^ 0x9e3779b97f4a7c15L);
+            boolean changed = false;
+            for (int i = 0; i < numHashes; i++) {
+                long bit = Math.floorMod(fingerprint + i * h2, numBits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old;
+                do {
+                    old = bits.get(word);
+                    if ((old & mask) != 0) break;
+                } while (!bits.compareAndSet(word, old, old | mask));
+                if ((old & mask) == 0) {
+                    setBits.incrementAndGet();
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        double fillRatio() {
+            return (double) setBits.get() / numBits;
+        }
+
+        double falsePositiveRate() {
+            return Math.pow(fillRatio(), numHashes);
+        }
+    }
+
+    @Override
+    public boolean add(String url) {
+        long fingerprint = UrlFingerprint.of(url);
+        for (Stage stage : stages) {
+            if (stage.mightContain(fingerprint)) return false;
+        }
+
+        Stage current = stages.get(stages.size() - 1);
+        if (!current.put(fingerprint)) return false;
+        count.incrementAndGet();
+        if (current.inserted.incrementAndGet() >= current.capacity) {
+            grow(current);
+        }
+        return true;
+    }
+
+    private synchronized void grow(Stage full) {
+        if (stages.get(stages.size() - 1) != full) return; // another thread already grew
+        double fpp = targetFpp * (1 - TIGHTENING_RATIO) * Math.pow(TIGHTENING_RATIO, stages.size());
+        stages.add(new Stage(full.capacity * GROWTH_FACTOR, fpp));
+        System.out.println("Visited filter grew to " + stages.size() + " stages");
+    }
+
+    @Override
+    public boolean contains(String url) {
+        long fingerprint = UrlFingerprint.of(url);
+        for (Stage stage : stages) {
+            if (stage.mightContain(fingerprint)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public long size() {
+        return count.get();
+    }
+
+    @Override
+    public long memoryBytes() {
+        long bytes = 0;
+        for (Stage stage : stages) {
+            bytes += stage.numBits / 8;
+        }
+        return bytes;
+    }
+
+    // Fill ratio of the stage currently taking inserts
+    public double fillRatio() {
+        return stages.get(stages.size() - 1).fillRatio();
+    }
+
+    // Chance that an unseen URL is reported as visited with the current fill
+    public double estimatedFalsePositiveRate() {
+        double allNegative = 1.0;
+        for (Stage stage : stages) {
+            allNegative *= 1 - stage.falsePositiveRate();
+        }
+        return 1 - allNegative;
+    }
+
+    public int stageCount() {
+        return stages.size();
+    }
+
+    @Override
+    public Collection<String> urls() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void save() {
+        try {
+            saveTo(file);
+        } catch (IOException e) {
+            System.err.println("Failed to save visited filter: " + e.getMessage());
+        }
+    }
+
+    // Writes to a temp file first so a crash mid-write keeps the previous copy
+    public synchronized void saveTo(Path path) throws IOException {
+        Path absolute = path.toAbsolutePath();
+        Path tmp = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_MAGIC);
+            out.writeDouble(targetFpp);
+            out.writeLong(initialCapacity);
+            out.writeLong(count.get());
+            out.writeInt(stages.size());
+            for (Stage stage : stages) {
+                out.writeLong(stage.capacity);
+                out.writeLong(stage.numBits);
+                out.writeInt(stage.numHashes);
+                out.writeLong(stage.inserted.get());
+                out.writeLong(stage.setBits.get());
+                for (int i = 0; i < stage.bits.length(); i++) {
+                    out.writeLong(stage.bits.get(i));
+                }
+            }
+        }
+        Files.move(tmp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static BloomVisitedSet load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("not a visited filter file: " + path);
+            }
+            double fpp = in.readDouble();
+            long initialCapacity = in.readLong();
+            long count = in.readLong();
+            int stageCount = in.readInt();
+
+            BloomVisitedSet set = new BloomVisitedSet(initialCapacity, fpp, path);
+            set.stages.clear();
+            for (int s = 0; s < stageCount; s++) {
+                long capacity = in.readLong();
+                long numBits = in.readLong();
+                int numHashes = in.readInt();
+                long inserted = in.readLong();
+                long setBits = in.readLong();
+                long[] words = new long[(int) (numBits / 64)];
+                for (int i = 0; i < words.length; i++) {
+                    words[i] = in.readLong();
+                }
+                set.stages.add(new Stage(capacity, numBits, numHashes, inserted, setBits, words));
+            }
+            set.count.set(count);
+            return set;
+        }
+    }
+
+    @Override
+    public String stats() {
+        return String.format("bloom visited set: ~%d urls, %d stages, %.2f MB, fill %.3f, est. fpp %.5f",
+                size(), stageCount(), memoryBytes() / (1024.0 * 1024.0), fillRatio(), estimatedFalsePositiveRate());
+    }
+}
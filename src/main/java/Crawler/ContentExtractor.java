@@ -0,0 +1,187 @@
+package Crawler;
+
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeTraversor;
+import org.jsoup.select.NodeVisitor;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps the main content of a page and drops navigation, footers, link lists and the like.
+// The body is split into text blocks at block-level tags. Every block gets a text density
+// (words per 80-character line) and a link density (share of its words inside <a>), and is kept
+// or dropped by the density rules of Kohlschuetter et al., "Boilerplate Detection using Shallow
+// Text Features", which also look at the previous and the next block. Scripts, styles and other
+// non-text elements are removed before that. Works on a copy, the parsed page is left intact for
+// link and image extraction.
+public final class ContentExtractor {
+    private static final int LINE_WIDTH = 80;
+
+    // never text a reader sees
+    private static final String NON_TEXT = "script, style, noscript, template, svg, canvas, iframe, object, embed, "
+            + "button, select, input, textarea, [hidden], [aria-hidden=true]";
+    // boilerplate by declaration, whatever its density
+    private static final String DECLARED_BOILERPLATE = "nav, aside, [role=navigation], [role=complementary], "
+            + "[role=contentinfo], [role=banner]";
+    private static final Set<String> BLOCK_TAGS = Set.of(
+            "body", "div", "p", "li", "ul", "ol", "dl", "dt", "dd", "table", "thead", "tbody", "tfoot", "tr", "td",
+            "th", "caption", "h1", "h2", "h3", "h4", "h5", "h6", "pre", "blockquote", "section", "article", "main",
+            "header", "footer", "figure", "figcaption", "address", "form", "fieldset", "details", "summary");
+
+    private ContentExtractor() { }
+
+    private static class Block {
+        final Element element;
+        int words;
+        int linkWords;
+        int chars;
+        boolean content;
+
+        Block(Element element) {
+            this.element = element;
+        }
+
+        double textDensity() {
+            if (chars <= LINE_WIDTH) return words;
+            return words * (double) LINE_WIDTH / chars;
+        }
+
+        double linkDensity() {
+            return words == 0 ? 0 : (double) linkWords / words;
+        }
+    }
+
+    // Copy of body with only the main content left. Falls back to the whole body without its
+    // non-text elements when no block qualifies, e.g. for pages that are all links.
+    public static Element extract(Element body) {
+        if (body == null) return null;
+        Element clean = body.clone();
+        clean.select(NON_TEXT).remove();
+        Element fallback = clean.clone();
+        clean.select(DECLARED_BOILERPLATE).remove();
+
+        List<Block> blocks = segment(clean);
+        if (!classify(blocks)) {
+            return fallback;
+        }
+
+        Map<Element, Block> byElement = new IdentityHashMap<>();
+        for (Block block : blocks) {
+            byElement.put(block.element, block);
+        }
+        prune(clean, isContent(byElement, clean), byElement);
+        return clean;
+    }
+
+    // Text blocks in document order. Text belongs to its nearest block-level ancestor, so a <div>
+    // with text and a nested <ul> gives two blocks.
+    private static List<Block> segment(Element root) {
+        List<Block> blocks = new ArrayList<>();
+        Map<Element, Block> byElement = new IdentityHashMap<>();
+        List<Element> blockStack = new ArrayList<>();
+        int[] anchorDepth = {0};
+
+        NodeTraversor.traverse(new NodeVisitor() {
+            @Override
+            public void head(Node node, int depth) {
+                if (node instanceof Element element) {
+                    if (isBlock(element) || element == root) blockStack.add(element);
+                    if (element.normalName().equals("a")) anchorDepth[0]++;
+                } else if (node instanceof TextNode text && !text.isBlank()) {
+                    Element owner = blockStack.get(blockStack.size() - 1);
+                    Block block = byElement.get(owner);
+                    if (block == null) {
+                        block = new Block(owner);
+                        byElement.put(owner, block);
+                        blocks.add(block);
+                    }
+                    int words = countWords(text.getWholeText());
+                    block.words += words;
+                    block.chars += text.getWholeText().trim().length();
+                    if (anchorDepth[0] > 0) block.linkWords += words;
+                }
+            }
+
+            @Override
+            public void tail(Node node, int depth) {
+                if (node instanceof Element element) {
+                    if (isBlock(element) || element == root) blockStack.remove(blockStack.size() - 1);
+                    if (element.normalName().equals("a")) anchorDepth[0]--;
+                }
+            }
+        }, root);
+        return blocks;
+    }
+
+    // Marks the content blocks, returns false when there are none
+    private static boolean classify(List<Block> blocks) {
+        boolean any = false;
+        for (int i = 0; i < blocks.size(); i++) {
+            Block current = blocks.get(i);
+            Block previous = i > 0 ? blocks.get(i - 1) : null;
+            Block next = i + 1 < blocks.size() ? blocks.get(i + 1) : null;
+            double prevLinkDensity = previous == null ? 0 : previous.linkDensity();
+            double prevDensity = previous == null ? 0 : previous.textDensity();
+            double nextDensity = next == null ? 0 : next.textDensity();
+
+            boolean content;
+            if (current.linkDensity() > 0.333) {
+                content = false;
+            } else if (prevLinkDensity <= 0.555) {
+                if (current.textDensity() <= 9) {
+                    content = nextDensity > 10 || prevDensity > 4;
+                } else {
+                    content = next == null || nextDensity > 0;
+                }
+            } else {
+                content = nextDensity > 11;
+            }
+            current.content = content;
+            any |= content;
+        }
+        return any;
+    }
+
+    // Removes everything outside the content blocks. Returns true when element keeps any content.
+    private static boolean prune(Element element, boolean ownContent, Map<Element, Block> blocks) {
+        boolean kept = ownContent;
+        for (Node child : new ArrayList<>(element.childNodes())) {
+            if (child instanceof Element childElement) {
+                boolean childContent = isBlock(childElement) ? isContent(blocks, childElement) : ownContent;
+                if (prune(childElement, childContent, blocks)) {
+                    kept = true;
+                } else {
+                    child.remove();
+                }
+            } else if (!ownContent) {
+                child.remove(); // text of a boilerplate block
+            }
+        }
+        return kept;
+    }
+
+    private static boolean isContent(Map<Element, Block> blocks, Element element) {
+        Block block = blocks.get(element);
+        return block != null && block.content;
+    }
+
+    private static boolean isBlock(Element element) {
+        return BLOCK_TAGS.contains(element.normalName());
+    }
+
+    private static int countWords(String text) {
+        int words = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) words++;
+            inWord = letter;
+        }
+        return words;
+    }
+}
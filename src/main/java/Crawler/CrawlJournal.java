@@ -0,0 +1,143 @@
+package Crawler;
+
+import dbManager.dbManager;
+import org.bson.Document;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Append-only record of crawler state changes.
+// Every checkpoint appends the URLs queued and dequeued since the previous one plus the page count
+// delta, so its cost follows the amount of change rather than the crawl size. Every
+// COMPACT_EVERY checkpoints (or once the journal grows past MAX_JOURNAL_EVENTS) a full snapshot
+// is written and the journal up to it is dropped. Recovery = snapshot + replay of the journal tail.
+// A spilling frontier keeps its URLs on disk, so for it only the visited set and page count are replayed.
+public class CrawlJournal {
+    private static final int COMPACT_EVERY = 50;
+    private static final long MAX_JOURNAL_EVENTS = 1_000_000;
+
+    private final dbManager mongo;
+    private final Frontier frontier;
+    private final VisitedSet visited;
+    private final AtomicInteger pageCount;
+
+    private final ConcurrentLinkedQueue<String> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<String> dequeued = new ConcurrentLinkedQueue<>();
+
+    private long seq = 0;                // last sequence number written
+    private int lastPageCount = 0;       // page count covered by the journal so far
+    private int checkpointsSinceSnapshot = 0;
+    private long eventsSinceSnapshot = 0;
+
+    public CrawlJournal(dbManager mongo, Frontier frontier, VisitedSet visited, AtomicInteger pageCount) {
+        this.mongo = mongo;
+        this.frontier = frontier;
+        this.visited = visited;
+        this.pageCount = pageCount;
+    }
+
+    public void recordAdd(String url) {
+        added.add(url);
+    }
+
+    public void recordVisit(String url) {
+        dequeued.add(url);
+    }
+
+    // Appends everything recorded since the last checkpoint, compacting when due.
+    // Returns false when the append failed and the events are still waiting for the next one.
+    public synchronized boolean checkpoint() {
+        frontier.checkpoint();
+        List<String> adds = drain(added);
+        List<String> visits = drain(dequeued);
+        int currentCount = pageCount.get();
+        int delta = currentCount - lastPageCount;
+
+        if (!adds.isEmpty() || !visits.isEmpty() || delta != 0) {
+            if (!mongo.appendCrawlerJournal(seq + 1, adds, visits, delta)) {
+                // keep the events for the next attempt
+                added.addAll(adds);
+                dequeued.addAll(visits);
+                return false;
+            }
+            seq++;
+            lastPageCount = currentCount;
+            checkpointsSinceSnapshot++;
+            eventsSinceSnapshot += adds.size() + visits.size();
+        }
+
+        if (checkpointsSinceSnapshot >= COMPACT_EVERY || eventsSinceSnapshot >= MAX_JOURNAL_EVENTS) {
+            compact();
+        }
+        return true;
+    }
+
+    // Writes a full snapshot at the current sequence number and drops the journal before it.
+    // Events recorded after the drain above are replayed on top, which is harmless because
+    // replay only adds to and removes from sets.
+    public synchronized void compact() {
+        visited.save();
+        // a spilling frontier persists itself in its own directory
+        List<String> urlsToCrawl = frontier.isPersistent() ? Collections.emptyList() : frontier.snapshot();
+        if (mongo.saveCrawlerSnapshot(seq, urlsToCrawl, visited.urls(), lastPageCount)) {
+            mongo.truncateCrawlerJournal(seq);
+            checkpointsSinceSnapshot = 0;
+            eventsSinceSnapshot = 0;
+        }
+    }
+
+    // Rebuilds frontier, visited set and page count from the snapshot and the journal tail
+    public synchronized void recover() {
+        Map<String, Object> snapshot = mongo.loadCrawlerSnapshot();
+        long snapshotSeq = 0;
+        int count = 0;
+        LinkedHashSet<String> pending = new LinkedHashSet<>();
+
+        if (snapshot != null) {
+            snapshotSeq = (Long) snapshot.get("seq");
+            count = (Integer) snapshot.get("pageCount");
+            pending.addAll((List<String>) snapshot.get("urlsToCrawl"));
+            for (String url : (List<String>) snapshot.get("visited")) {
+                visited.add(url);
+            }
+        }
+
+        long lastSeq = snapshotSeq;
+        int replayed = 0;
+        for (Document entry : mongo.loadCrawlerJournal(snapshotSeq)) {
+            for (String url : entry.getList("adds", String.class, Collections.emptyList())) {
+                visited.add(url);
+                pending.add(url);
+            }
+            for (String url : entry.getList("visits", String.class, Collections.emptyList())) {
+                pending.remove(url);
+            }
+            count += entry.getInteger("pageDelta", 0);
+            lastSeq = Math.max(lastSeq, entry.getLong("seq"));
+            replayed++;
+        }
+
+        if (frontier.isPersistent()) {
+            pending.clear(); // already restored from the spill directory
+        }
+        for (String url : pending) {
+            frontier.restore(url);
+        }
+        pageCount.set(count);
+        seq = lastSeq;
+        lastPageCount = count;
+        checkpointsSinceSnapshot = replayed;
+        System.out.println("Recovered crawler state: " + count + " pages, " + pending.size() +
+                " URLs to crawl, " + replayed + " journal entries replayed after snapshot " + snapshotSeq);
+    }
+
+    private static List<String> drain(ConcurrentLinkedQueue<String> queue) {
+        List<String> urls = new ArrayList<>();
+        String url;
+        while ((url = queue.poll()) != null) {
+            urls.add(url);
+        }
+        return urls;
+    }
+}
@@ -10,29 +10,71 @@ import org.jsoup.select.Elements;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 public class Crawler {
-    private final ConcurrentLinkedQueue<String> urlsToCrawl = new ConcurrentLinkedQueue<>();
-    private final Set<String> visited = ConcurrentHashMap.newKeySet();
+    // this process's part of the host space, everything when CRAWLER_SHARD_COUNT is 1
+    private final ShardRing shards = ShardRing.fromConfig();
+    private final boolean replay = CrawlerConfig.isReplay(); // fetches come from the WARC archive
+    // a replay keeps its crawl state apart from the live crawl it replays, CRAWLER_STATE_SUFFIX
+    // does the same for benchmark runs
+    private final String stateSuffix = shards.stateSuffix() + (replay ? "_replay" : "")
+            + CrawlerConfig.get("CRAWLER_STATE_SUFFIX", "");
+    private final VisitedSet visited = VisitedSet.create(stateSuffix); // every URL ever queued
+    private final LinkForwarder linkForwarder; // null unless sharded
+    private final Frontier frontier;
+    private final CrawlJournal journal;
     private final AtomicInteger pageCount = new AtomicInteger(0); /// thread safe int
-    private final int maxPages = 8000;
+    // what the fetch engines check against pageLimit: the stored page count a run started from,
+    // plus the pages and revisits of this run, so revisits don't inflate the journaled pageCount
+    private final AtomicInteger fetchedCount = new AtomicInteger(0);
+    private final int maxPages = CrawlerConfig.getInt("CRAWLER_MAX_PAGES", 8000);
+    private int pageLimit = maxPages; // a recrawl pass may fetch maxPages more on top of the saved count
     private final RobotsManager robotsM;
     private final ExecutorService executor;
-    private final int numThreads = 10;
+    private final int numThreads = CrawlerConfig.getInt("CRAWLER_THREADS", 10);
+    private final CrawlerConfig.FetchMode fetchMode = CrawlerConfig.fetchMode();
+    private final int maxInFlight = CrawlerConfig.maxInFlight();
     private final dbManager mongo; // database agent
     private static Set<String> excludedParams; // file for reading normalization
-    // cache for normalized URLs to avoid re-normalizing
-    private final ConcurrentHashMap<String, String> urlNormalizeCache = new ConcurrentHashMap<>(10000);
-    // cache for canCrawl in robots  results
-    private final ConcurrentHashMap<String, Boolean> canCrawlCache = new ConcurrentHashMap<>(1000);
+    private static final int URL_CACHE_SIZE = 100_000; // normalized links kept in the LRU cache
+    private UrlNormalizer urlNormalizer; // built once the excluded parameters are read
+    private final TrapDetector traps = new TrapDetector();
+    private final SimHashIndex nearDuplicates = new SimHashIndex(CrawlerConfig.getInt("CRAWLER_NEAR_DUP_DISTANCE", 3));
+    // OPIC cash per discovered URL, orders the frontier; CRAWLER_ORDER=depth falls back to path depth
+    private final OpicEstimator importance = "depth".equalsIgnoreCase(CrawlerConfig.get("CRAWLER_ORDER", "opic"))
+            ? null : new OpicEstimator(CrawlerConfig.getInt("CRAWLER_OPIC_MAX_URLS", 4_000_000));
+    // alias documents (url -> stored url) waiting for the db writer
+    private final ConcurrentLinkedQueue<Document> pendingAliases = new ConcurrentLinkedQueue<>();
+    // stored pages being revisited in this run, keyed by url
+    private final ConcurrentHashMap<String, RecrawlInfo> recrawlInfo = new ConcurrentHashMap<>();
+    // {url, fields} updates of revisited pages waiting for the db writer
+    private final ConcurrentLinkedQueue<Document> pendingRecrawls = new ConcurrentLinkedQueue<>();
+    private volatile DbWriterThread dbWriter; // set while a crawl runs, for the stats log
+    private volatile Consumer<List<Document>> storeListener; // told about every inserted batch
 
     public Crawler() {
-        this.mongo = new dbManager();
+        // a replay stores its pages in a database of its own, the live crawl's documents stay as they are
+        this.mongo = new dbManager(stateSuffix, replay ? "_replay" : "");
         this.robotsM = new RobotsManager();
+        // keep enough hosts active to feed every concurrent fetch
+        int fetchConcurrency = fetchMode == CrawlerConfig.FetchMode.ASYNC ? maxInFlight : numThreads;
+        String spillDir = CrawlerConfig.get("CRAWLER_FRONTIER_DIR", "");
+        // nothing to be polite to when replaying, the archive is read as fast as the pipeline goes
+        this.frontier = new Frontier(visited, fetchConcurrency * 3,
+                replay ? 0 : Frontier.DEFAULT_POLITENESS_DELAY_MS,
+                spillDir.isEmpty() ? null : Paths.get(spillDir + stateSuffix));
+        this.linkForwarder = shards.isSharded() ? new LinkForwarder(shards, mongo, visited) : null;
+        frontier.setExternalSource(shards.isSharded());
+        frontier.setImportance(importance);
+        frontier.setTrapDetector(traps);
+        this.journal = new CrawlJournal(mongo, frontier, visited, pageCount);
+        robotsM.setCrawlDelayListener(frontier::setCrawlDelay);
         this.executor = new ThreadPoolExecutor(
                 numThreads,
                 numThreads,
@@ -43,6 +85,7 @@ public class Crawler {
         );
         readExcludeParams();
         loadState();
+        frontier.setJournal(journal); // after recovery, so restored URLs aren't journaled again
         addShutdownHook();
     }
 
@@ -65,24 +108,111 @@ public class Crawler {
             tempParams.addAll(Arrays.asList("session", "utm_source", "utm_medium", "utm_campaign", "ref", "fbclid"));
         }
         excludedParams = Collections.unmodifiableSet(tempParams);
+        urlNormalizer = new UrlNormalizer(excludedParams, URL_CACHE_SIZE);
     }
 
     private void loadState() {
-        Map<String, Object> state = mongo.loadCrawlerState();
-        if (state != null) {
-            List<String> savedUrlsToCrawl = (List<String>) state.get("urlsToCrawl");
-            List<String> savedVisited = (List<String>) state.get("visited");
-            int savedPageCount = (Integer) state.get("pageCount");
-
-            urlsToCrawl.addAll(savedUrlsToCrawl);
-            visited.addAll(savedVisited);
-            pageCount.set(savedPageCount);
+        journal.recover();
+    }
+
+    // Cheap incremental checkpoint, see CrawlJournal
+    void saveState() {
+        journal.checkpoint();
+    }
+
+    private void logStats() {
+        System.out.println("[Crawler stats] pages " + pageCount.get() + ", frontier " + frontier.size());
+        System.out.println("[Crawler stats] " + visited.stats());
+        System.out.println("[Crawler stats] " + frontier.healthStats());
+        System.out.println("[Crawler stats] " + traps.stats());
+        System.out.println("[Crawler stats] " + nearDuplicates.stats());
+        System.out.println("[Crawler stats] " + CrawlerHttpClient.shared().stats());
+        if (importance != null) {
+            System.out.println("[Crawler stats] " + importance.stats());
+        }
+        if (linkForwarder != null) {
+            System.out.println("[Crawler stats] " + linkForwarder.stats());
+        }
+        DbWriterThread writer = dbWriter;
+        if (writer != null) {
+            System.out.println("[Crawler stats] " + writer.stats());
+        }
+    }
+
+    // Records that url is served by the stored document of aliasOf
+    public void recordAlias(String url, String aliasOf, String reason) {
+        pendingAliases.add(new Document("_id", url)
+                .append("aliasOf", aliasOf)
+                .append("reason", reason)
+                .append("timestamp", System.currentTimeMillis()));
+    }
+
+    // Lets a benchmark see when documents reach the database
+    public void setStoreListener(Consumer<List<Document>> storeListener) {
+        this.storeListener = storeListener;
+    }
+
+    void documentsStored(List<Document> docs) {
+        Consumer<List<Document>> listener = storeListener;
+        if (listener != null) {
+            listener.accept(docs);
         }
     }
 
-    private void saveState() {
-        int currentCount = pageCount.get();
-        mongo.saveCrawlerState(urlsToCrawl, visited, currentCount);
+    public int getPageCount() {
+        return pageCount.get();
+    }
+
+    public long getFrontierSize() {
+        return frontier.size();
+    }
+
+    List<Document> drainAliases() {
+        return drain(pendingAliases);
+    }
+
+    // Sends a discovered link owned by another shard to it, returns false for local links
+    public boolean forwardIfForeign(String url) {
+        return linkForwarder != null && linkForwarder.forwardIfForeign(url);
+    }
+
+    // Same for a URL taken from the local frontier, which can belong elsewhere after the
+    // shard count changed
+    public boolean handOffIfForeign(String url) {
+        return linkForwarder != null && linkForwarder.handOffIfForeign(url);
+    }
+
+    // Validators and schedule of url if this run revisits it, null for new pages
+    public RecrawlInfo getRecrawlInfo(String url) {
+        return recrawlInfo.get(url);
+    }
+
+    // Records the fields to set on the stored document of a revisited url
+    public void recordRecrawl(String url, Document fields) {
+        recordRecrawl(url, fields, Collections.emptyList());
+    }
+
+    // Same, and removes the unset fields from the stored document
+    public void recordRecrawl(String url, Document fields, List<String> unset) {
+        pendingRecrawls.add(new Document("url", url).append("fields", fields).append("unset", unset));
+    }
+
+    // Records that the stored document of a revisited url is gone and has to be removed
+    public void recordRemoval(String url) {
+        pendingRecrawls.add(new Document("url", url).append("remove", true));
+    }
+
+    List<Document> drainRecrawls() {
+        return drain(pendingRecrawls);
+    }
+
+    private static List<Document> drain(ConcurrentLinkedQueue<Document> queue) {
+        List<Document> docs = new ArrayList<>();
+        Document doc;
+        while ((doc = queue.poll()) != null) {
+            docs.add(doc);
+        }
+        return docs;
     }
 
     private void addShutdownHook() {
@@ -94,22 +224,45 @@ public class Crawler {
     }
 
     public void startCrawl(String filename) throws Exception {
-        if (urlsToCrawl.isEmpty()) {
+        if (frontier.isEmpty()) {
             readStartLinks(filename);
         }
         crawl();
     }
 
+    // Revisits stored pages whose revisit time has passed with conditional GETs.
+    // Unchanged pages only get a new schedule, changed ones are rewritten and re-indexed.
+    public void startRecrawl() {
+        // the documents collection is shared, every shard picks the hosts it owns
+        List<Document> due = mongo.getDocumentsDueForRecrawl(System.currentTimeMillis(),
+                maxPages * shards.getShardCount());
+        for (Document doc : due) {
+            RecrawlInfo info = RecrawlInfo.fromDocument(doc);
+            if (info.getUrl() == null || !shards.isLocal(info.getUrl())) continue;
+            recrawlInfo.put(info.getUrl(), info);
+            frontier.restore(info.getUrl());
+        }
+        pageLimit = pageCount.get() + maxPages;
+        System.out.println("Recrawl: " + recrawlInfo.size() + " stored pages due for a revisit");
+        crawl();
+    }
+
     private void readStartLinks(String fileName) {
         try (BufferedReader br = new BufferedReader(new FileReader(fileName))) {
             String line;
             while ((line = br.readLine()) != null) {
                 try {
                     String normalized = normalizeUrl(line, null);
-                    if (normalized != null && !normalized.isEmpty() && !visited.contains(normalized)) {
+                    // every shard reads the same seed file and keeps its own hosts
+                    if (normalized != null && !normalized.isEmpty() && !visited.contains(normalized)
+                            && shards.isLocal(normalized)) {
 
                         if(robotsM.canCrawl(normalized)){
-                        urlsToCrawl.add(normalized);
+                        frontier.add(normalized, 0); // seeds go to the highest priority
+                        if (importance != null) {
+                            importance.credit(normalized, OpicEstimator.SEED_CASH);
+                            importance.queued(normalized, 0);
+                        }
 
                         }
                     }
@@ -120,48 +273,71 @@ public class Crawler {
         } catch (IOException e) {
             System.err.println("Error reading seed file: " + e.getMessage());
         }
-        System.out.println("Seed URLs loaded: " + urlsToCrawl.size());
+        System.out.println("Seed URLs loaded: " + frontier.size());
     }
 
     private void crawl() {
         List<Future<?>> futures = new ArrayList<>();
+        fetchedCount.set(pageCount.get());
 
         // Create worker pool with shared document batch
         BlockingQueue<Document> documentBatchQueue = new LinkedBlockingQueue<>(10000); /// this will be send to the dbwriter
 
         // Start database writer thread
         DbWriterThread dbWriter = new DbWriterThread(documentBatchQueue, mongo,this);
+        this.dbWriter = dbWriter;
         Thread dbWriterThread = new Thread(dbWriter);
         dbWriterThread.start();
 
-        // Start worker threads
-        for (int i = 0; i < numThreads; i++) {
-            CrawlerWorker worker = new CrawlerWorker(
-                    urlsToCrawl,
-                    visited,
-                    pageCount,
-                    maxPages,
-                    robotsM,
-                    documentBatchQueue,
-                    this,
-                    canCrawlCache
-            );
-            futures.add(executor.submit(worker));
-        }
+        PageProcessor processor = new PageProcessor(
+                frontier,
+                pageCount,
+                fetchedCount,
+                robotsM,
+                documentBatchQueue,
+                this,
+                nearDuplicates,
+                importance
+        );
 
         // save state  5 minutes
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
         scheduler.scheduleAtFixedRate(this::saveState, 5, 5, TimeUnit.MINUTES);
+        scheduler.scheduleAtFixedRate(this::logStats, 1, 1, TimeUnit.MINUTES);
+        if (linkForwarder != null) {
+            // swap links with the other shards every couple of seconds
+            scheduler.scheduleWithFixedDelay(() -> linkForwarder.exchange(frontier, journal), 2, 2, TimeUnit.SECONDS);
+        }
+
+        if (fetchMode == CrawlerConfig.FetchMode.ASYNC) {
+            // Returns once maxPages is reached and in-flight fetches are done
+            new AsyncFetchEngine(frontier, fetchedCount, pageLimit, processor, maxInFlight).run();
+        } else {
+            // Start worker threads
+            for (int i = 0; i < numThreads; i++) {
+                CrawlerWorker worker = new CrawlerWorker(
+                        frontier,
+                        fetchedCount,
+                        pageLimit,
+                        processor
+                );
+                futures.add(executor.submit(worker));
+            }
 
-        // Wait for workers to finish
-        for (Future<?> future : futures) {
-            try {
-                future.get();
-            } catch (InterruptedException | ExecutionException e) {
-                System.err.println("Worker failed: " + e.getMessage());
+            // Wait for workers to finish
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException | ExecutionException e) {
+                    System.err.println("Worker failed: " + e.getMessage());
+                }
             }
         }
 
+        if (linkForwarder != null) {
+            linkForwarder.flush();
+        }
+
         // Signal database writer to finish
         dbWriter.shutdown();
         try {
@@ -183,144 +359,33 @@ public class Crawler {
         executor.shutdown();
     }
 
+    // Canonical form of url resolved against baseUrl, null if it must not be crawled (see UrlNormalizer)
     public String normalizeUrl(String url, String baseUrl) {
-        // Check cache first
-        String cacheKey = url + "|" + (baseUrl == null ? "" : baseUrl);
-        String cached = urlNormalizeCache.get(cacheKey);
-        if (cached != null) {
-            return cached;
-        }
-
-        if (url == null || url.trim().isEmpty()) {
-            return null;
-        }
-
-
-
-
-        // Quick filters for common non-http URLs
-        if (url.startsWith("javascript:") || url.startsWith("mailto:") || url.startsWith("tel:") ||
-                url.startsWith("#") || url.startsWith("data:")) {
-            return null;
-        }
-
-        // Filter out certain file types
-        if (url.endsWith(".pdf") || url.endsWith(".jpg") || url.endsWith(".jpeg") ||
-                url.endsWith(".png") || url.endsWith(".gif") || url.endsWith(".css") ||
-                url.endsWith(".js") || url.endsWith(".zip") || url.endsWith(".mp4") ||
-                url.endsWith(".mp3")) {
-            return null;
-        }
-
-        // Sanitize input URL
-        url = url.replaceAll("\\?+", "?");
-
-        while (url.endsWith("?")) {
-            url = url.substring(0, url.length() - 1);
-        }
-
-        // Resolve relative URLs
-        if (!url.startsWith("http") && baseUrl != null && !baseUrl.isEmpty()) {
-            try {
-                org.jsoup.nodes.Document doc = Jsoup.parse("<a href=\"" + url + "\"></a>", baseUrl);
-                url = doc.select("a").first().absUrl("href");
-            } catch (Exception e) {
-                return null;
-            }
-        }
-
-        // Parse and normalize URL
-        URI uri;
-        try {
-            uri = new URI(url).normalize();
-        } catch (Exception e) {
-            return null;
-        }
-
-
-        String scheme = uri.getScheme() != null ? uri.getScheme().toLowerCase() : "http";
-        if (!scheme.equals("http") && !scheme.equals("https")) {
-            return null;
-        }
-
-        String host = uri.getHost() != null ? uri.getHost().toLowerCase() : "";
-        if (host.isEmpty()) {
-            return null;
-        }
-
-        int port = uri.getPort();
-        if ((port == 80 && "http".equals(scheme)) || (port == 443 && "https".equals(scheme))) {
-            port = -1;
-        }
-
-        String path = uri.getPath() != null ? uri.getPath() : "/";
-
-        ///  filter non english
-        String[] segments = path.split("/");
-        if (segments.length > 1) {
-            String langCode = segments[1].toLowerCase();
-            if (!langCode.startsWith("en")) {
-                return null;
-            }
-        }
-
-
-
-        String query = uri.getQuery();
-        String newQuery = null;
-
-        if (query != null && !query.isEmpty()) {
-            try {
-
-                StringBuilder queryBuilder = new StringBuilder();
-                boolean firstParam = true;
-
-                for (String param : query.split("&")) {
-                    String[] parts = param.split("=", 2);
-                    if (parts.length == 2 && !parts[0].isEmpty() && !excludedParams.contains(parts[0].toLowerCase())) {
-                        if (!firstParam) {
-                            queryBuilder.append('&');
-                        } else {
-                            firstParam = false;
-                        }
-                        queryBuilder.append(parts[0]).append('=').append(parts[1]);
-                    }
-                }
-
-                if (queryBuilder.length() > 0) {
-                    newQuery = queryBuilder.toString();
-                }
-            } catch (Exception e) {
-                newQuery = null;
-            }
-        }
-
-        try {
-            String normalizedUrl = new URI(scheme, null, host, port, path, newQuery, null).toString();
-            // Cache the result
-            if (urlNormalizeCache.size() < 10000) {
-                urlNormalizeCache.put(cacheKey, normalizedUrl);
-            }
-
-            normalizedUrl.replace("?", "");
-
-            return normalizedUrl;
-        } catch (Exception e) {
-            return null;
-        }
+        return urlNormalizer.normalize(url, baseUrl);
     }
 
     public void close() {
         saveState();
         executor.shutdownNow();
+        CrawlerHttpClient.shared().closeArchive();
         System.out.println("Crawler closed");
     }
 
     public static void main(String[] args) {
         String fileName = "src/seed.txt";
+        CrawlerHttpClient.configureNetworking(); // before the first DNS lookup of the process
+        if (Arrays.asList(args).contains("--replay")) {
+            System.setProperty("CRAWLER_MODE", "replay");
+        }
+        boolean recrawl = Arrays.asList(args).contains("--recrawl")
+                || "recrawl".equalsIgnoreCase(CrawlerConfig.get("CRAWLER_MODE", "crawl"));
         Crawler cr = new Crawler();
         try {
-            cr.startCrawl(fileName);
+            if (recrawl) {
+                cr.startRecrawl();
+            } else {
+                cr.startCrawl(fileName);
+            }
             System.out.println("Finished crawling.");
         } catch (Exception e) {
             System.err.println("Crawling failed: " + e.getMessage());
@@ -328,65 +393,4 @@ public class Crawler {
             cr.close();
         }
     }
-
-
-    /// //////////////////////////////////////////////////////////////////////////////////////////
-
-    // Database writer thread to handle inserts in the background
-    private static class DbWriterThread implements Runnable {
-        private final BlockingQueue<Document> queue;
-        private final dbManager dbManager;
-        private final Crawler crawler;
-        private volatile boolean running = true;
-        private static final int BATCH_SIZE = 500;
-
-        public DbWriterThread(BlockingQueue<Document> queue, dbManager dbManager,Crawler cr) {
-            this.queue = queue;
-            this.dbManager = dbManager;
-            this.crawler = cr ;
-        }
-
-        public void shutdown() {
-            running = false;
-        }
-
-        @Override
-        public void run() {
-            List<Document> batch = new ArrayList<>(BATCH_SIZE);
-
-            while (running || !queue.isEmpty()) {
-                try {
-                    Document doc = queue.poll(1, TimeUnit.SECONDS);
-                    if (doc != null) {
-                        batch.add(doc);
-                    }
-                    System.out.println("batch size is = "+batch.size());
-                    // Insert batch if large enough or if no more documents are coming
-                    if (batch.size() >= BATCH_SIZE || (!running && !batch.isEmpty() && queue.isEmpty())) {
-                        try {
-                            dbManager.insertDocuments(batch);
-                            System.out.println("///////////////////////////Inserted batch of//////////////////////////  " + batch.size() + " documents");
-                            crawler.saveState();
-                        } catch (Exception e) {
-                            System.err.println("Batch insert failed: " + e.getMessage());
-                        }
-                        batch.clear();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
-
-            // Insert any remaining documents
-            if (!batch.isEmpty()) {
-                try {
-                    dbManager.insertDocuments(batch);
-                    System.out.println("Inserted final batch of " + batch.size() + " documents");
-                } catch (Exception e) {
-                    System.err.println("Final batch insert failed: " + e.getMessage());
-                }
-            }
-        }
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,53 @@
+package Crawler;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+// Crawler settings, read from -D system properties first and then from the .env file / environment
+public class CrawlerConfig {
+    private static final Dotenv dotenv = Dotenv.configure().ignoreIfMissing().load();
+
+    public enum FetchMode {
+        ASYNC,    // java.net.http.HttpClient with sendAsync, parsing on a CPU-sized pool
+        BLOCKING  // one blocking HttpClient request per worker thread
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = dotenv.get(key);
+        }
+        return value == null || value.isBlank() ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String key, int defaultValue) {
+        try {
+            return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid value for " + key + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static FetchMode fetchMode() {
+        String mode = get("CRAWLER_FETCH_MODE", "ASYNC").toUpperCase();
+        if (mode.equals("JSOUP")) {
+            return FetchMode.BLOCKING; // the blocking path's old name, from when it fetched with Jsoup.connect
+        }
+        try {
+            return FetchMode.valueOf(mode);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Unknown CRAWLER_FETCH_MODE, falling back to BLOCKING");
+            return FetchMode.BLOCKING;
+        }
+    }
+
+    // Replay mode fetches from the WARC archive in CRAWLER_WARC_DIR instead of the network
+    public static boolean isReplay() {
+        return "replay".equalsIgnoreCase(get("CRAWLER_MODE", "crawl"));
+    }
+
+    // Upper bound of concurrent requests in ASYNC mode
+    public static int maxInFlight() {
+        return getInt("CRAWLER_MAX_IN_FLIGHT", 1000);
+    }
+}
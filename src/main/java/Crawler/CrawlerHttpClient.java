@@ -0,0 +1,310 @@
+package Crawler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.security.Security;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The crawler's only HTTP client, shared by page fetches in both fetch modes and by robots.txt.
+// java.net.http keeps a pool of idle connections per host, so the polite one-fetch-per-host
+// schedule reuses a warm TCP/TLS connection instead of dialing again for every page, and
+// servers that offer HTTP/2 through ALPN get it. DNS answers are cached by the JVM for
+// CRAWLER_DNS_TTL seconds (failed lookups for CRAWLER_DNS_NEGATIVE_TTL).
+// Bodies are streamed and stop at maxBodySize. Page fetches also stop as soon as the headers or
+// the first few KB show a page PageProcessor would drop (see PageSniffer): the request is
+// cancelled, which closes the HTTP/1.1 connection or resets the HTTP/2 stream.
+// With CRAWLER_WARC_DIR set every response is archived (WarcWriter); in replay mode
+// (CRAWLER_MODE=replay) the same directory answers every fetch instead of the network.
+public class CrawlerHttpClient {
+    public static final String USER_AGENT = "Falcony/1.0";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(15);
+    private static final String KEEPALIVE_SECONDS = "60"; // idle pooled connections are closed after this
+
+    private static volatile CrawlerHttpClient shared;
+    private static boolean networkingConfigured = false;
+
+    private final HttpClient client;
+    private final WarcWriter archive; // null unless CRAWLER_WARC_DIR is set
+    private final WarcReplay replay;  // null unless replaying
+
+    // early aborts and the body bytes they were cut off after
+    private final AtomicLong abortedByHeaders = new AtomicLong();
+    private final AtomicLong abortedBySniffing = new AtomicLong();
+    private final AtomicLong truncated = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private CrawlerHttpClient() {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2) // https only (see request), HTTP/1.1 when h2 is not offered
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .build();
+
+        String warcDir = CrawlerConfig.get("CRAWLER_WARC_DIR", "");
+        try {
+            if (CrawlerConfig.isReplay()) {
+                if (warcDir.isEmpty()) {
+                    throw new IllegalStateException("Replay mode needs CRAWLER_WARC_DIR");
+                }
+                this.replay = new WarcReplay(Paths.get(warcDir));
+                this.archive = null;
+            } else {
+                this.replay = null;
+                this.archive = warcDir.isEmpty() ? null : new WarcWriter(Paths.get(warcDir),
+                        "falcony-" + ProcessHandle.current().pid(),
+                        CrawlerConfig.getInt("CRAWLER_WARC_MAX_MB", 1024) * 1024L * 1024L);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open WARC directory " + warcDir, e);
+        }
+    }
+
+    public static CrawlerHttpClient shared() {
+        CrawlerHttpClient client = shared;
+        if (client == null) {
+            synchronized (CrawlerHttpClient.class) {
+                if (shared == null) {
+                    configureNetworking();
+                    shared = new CrawlerHttpClient();
+                }
+                client = shared;
+            }
+        }
+        return client;
+    }
+
+    // DNS cache and connection pool settings are read once by the JDK, so this has to run before
+    // the first lookup or request of the process. Values set on the command line are kept.
+    public static synchronized void configureNetworking() {
+        if (networkingConfigured) return;
+        networkingConfigured = true;
+
+        Security.setProperty("networkaddress.cache.ttl", CrawlerConfig.get("CRAWLER_DNS_TTL", "300"));
+        Security.setProperty("networkaddress.cache.negative.ttl", CrawlerConfig.get("CRAWLER_DNS_NEGATIVE_TTL", "60"));
+        if (System.getProperty("jdk.httpclient.keepalive.timeout") == null) {
+            System.setProperty("jdk.httpclient.keepalive.timeout", KEEPALIVE_SECONDS);
+        }
+    }
+
+    // Page fetch that gives up early on non-HTML and non-English responses
+    public CompletableFuture<FetchedPage> fetchPageAsync(String url, Map<String, String> headers,
+                                                         Duration timeout, int maxBodySize) {
+        if (replay != null) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return replay.fetch(url);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e.getMessage(), e);
+                }
+            });
+        }
+        return client.sendAsync(request(url, headers, timeout), bodyHandler(maxBodySize, true))
+                .thenApply(response -> toPage(url, response));
+    }
+
+    // Blocking variant for worker threads
+    public FetchedPage fetchPage(String url, Map<String, String> headers, Duration timeout, int maxBodySize)
+            throws IOException, InterruptedException {
+        if (replay != null) {
+            return replay.fetch(url);
+        }
+        return toPage(url, client.send(request(url, headers, timeout), bodyHandler(maxBodySize, true)));
+    }
+
+    // Plain fetch of any content type, used for robots.txt
+    public FetchedPage fetch(String url, Map<String, String> headers, Duration timeout, int maxBodySize)
+            throws IOException, InterruptedException {
+        if (replay != null) {
+            return replay.fetch(url);
+        }
+        return toPage(url, client.send(request(url, headers, timeout), bodyHandler(maxBodySize, false)));
+    }
+
+    public String stats() {
+        String stats = String.format("http: %d MB of bodies read, %d aborted on headers, %d aborted after sniffing, %d truncated",
+                bytesRead.get() >> 20, abortedByHeaders.get(), abortedBySniffing.get(), truncated.get());
+        return archive == null ? stats : stats + ", " + archive.getRecordCount() + " responses archived";
+    }
+
+    // Flushes and closes the current WARC file
+    public void closeArchive() {
+        if (archive != null) {
+            archive.close();
+        }
+    }
+
+    // Only successful page responses are sniffed, errors and redirects are small and handled by status
+    private HttpResponse.BodyHandler<Body> bodyHandler(int maxBodySize, boolean pageChecks) {
+        return info -> {
+            boolean sniff = pageChecks && info.statusCode() >= 200 && info.statusCode() < 300;
+            Map<String, String> headers = FetchedPage.flattenHeaders(info.headers().map());
+            String rejected = sniff ? PageSniffer.checkHeaders(headers) : null;
+            if (rejected != null) {
+                abortedByHeaders.incrementAndGet();
+            }
+            return new StreamingSubscriber(maxBodySize, sniff, headers, rejected);
+        };
+    }
+
+    private static HttpRequest request(String url, Map<String, String> headers, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(timeout)
+                .header("User-Agent", USER_AGENT)
+                .GET();
+        if (url.regionMatches(true, 0, "http:", 0, 5)) {
+            // HTTP_2 on a plain http:// request means an "Upgrade: h2c" header, which some servers and
+            // proxies reject; h2 is only negotiated over TLS anyway
+            builder.version(HttpClient.Version.HTTP_1_1);
+        }
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    private FetchedPage toPage(String url, HttpResponse<Body> response) {
+        Body body = response.body();
+        FetchedPage page = new FetchedPage(
+                url,
+                response.uri().toString(),
+                response.statusCode(),
+                FetchedPage.flattenHeaders(response.headers().map()),
+                body.text,
+                body.abortReason);
+        if (archive != null) {
+            archive.writeResponse(page, body.raw);
+        }
+        return page;
+    }
+
+    private static class Body {
+        static final byte[] NO_BYTES = new byte[0];
+
+        final String text;
+        final byte[] raw;         // bytes as received, kept for the archive
+        final String abortReason; // null for a body that was read
+
+        Body(String text, byte[] raw, String abortReason) {
+            this.text = text;
+            this.raw = raw;
+            this.abortReason = abortReason;
+        }
+
+        static Body aborted(String reason) {
+            return new Body("", NO_BYTES, reason);
+        }
+    }
+
+    // Collects the body up to maxBodySize and cancels the transfer once it is not needed any more.
+    // The charset comes from the Content-Type header, then <meta charset>, then UTF-8.
+    private class StreamingSubscriber implements HttpResponse.BodySubscriber<Body> {
+        private final CompletableFuture<Body> result = new CompletableFuture<>();
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private final int maxBodySize;
+        private final boolean sniff;
+        private final Map<String, String> headers;
+        private final String rejected;
+        private Flow.Subscription subscription;
+        private boolean sniffed = false;
+        private boolean done = false;
+
+        StreamingSubscriber(int maxBodySize, boolean sniff, Map<String, String> headers, String rejected) {
+            this.maxBodySize = maxBodySize;
+            this.sniff = sniff;
+            this.headers = headers;
+            this.rejected = rejected;
+        }
+
+        @Override
+        public CompletionStage<Body> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (rejected != null) {
+                abort(rejected);
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> items) {
+            if (done) return;
+            for (ByteBuffer item : items) {
+                int take = Math.min(item.remaining(), maxBodySize - buffer.size());
+                byte[] bytes = new byte[take];
+                item.get(bytes);
+                buffer.write(bytes, 0, take);
+                bytesRead.addAndGet(take);
+            }
+
+            if (sniff && !sniffed && buffer.size() >= PageSniffer.SNIFF_BYTES) {
+                sniffed = true;
+                String reason = PageSniffer.checkHead(buffer.toByteArray(), buffer.size(), false);
+                if (reason != null) {
+                    abortedBySniffing.incrementAndGet();
+                    abort(reason);
+                    return;
+                }
+            }
+            if (buffer.size() >= maxBodySize) {
+                // the rest of the page is never used, stop the download instead of discarding it
+                truncated.incrementAndGet();
+                done = true;
+                subscription.cancel();
+                result.complete(body());
+                return;
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (done) return;
+            done = true;
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            if (done) return;
+            done = true;
+            if (sniff && !sniffed) {
+                // short page, still spare PageProcessor the parse
+                String reason = PageSniffer.checkHead(buffer.toByteArray(), buffer.size(), true);
+                if (reason != null) {
+                    abortedBySniffing.incrementAndGet();
+                    result.complete(Body.aborted(reason));
+                    return;
+                }
+            }
+            result.complete(body());
+        }
+
+        private void abort(String reason) {
+            done = true;
+            subscription.cancel();
+            result.complete(Body.aborted(reason));
+        }
+
+        private Body body() {
+            byte[] bytes = buffer.toByteArray();
+            return new Body(PageSniffer.decode(bytes, bytes.length, headers), bytes, null);
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package Crawler;
+
+import dbManager.dbManager;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Database writer stage between the page processors and Mongo.
+// Documents are drained from the bounded queue in batches that are flushed when they reach
+// BATCH_SIZE or when the oldest document has waited FLUSH_INTERVAL_MS, whichever comes first.
+// Up to WRITERS unordered insertMany calls run at once. When Mongo falls behind, the writer blocks
+// on the in-flight limit, the queue fills up and PageProcessor blocks on put(), which in turn
+// holds back the fetchers: pages are slowed down instead of dropped.
+class DbWriterThread implements Runnable {
+    private static final int BATCH_SIZE = CrawlerConfig.getInt("CRAWLER_DB_BATCH_SIZE", 500);
+    private static final long FLUSH_INTERVAL_MS = CrawlerConfig.getInt("CRAWLER_DB_FLUSH_MS", 2000);
+    private static final int WRITERS = CrawlerConfig.getInt("CRAWLER_DB_WRITERS", 4);
+    private static final long SIDE_WRITE_INTERVAL_MS = 5000; // aliases and recrawl updates
+    private static final long CHECKPOINT_INTERVAL_MS = 30_000;
+
+    private final BlockingQueue<Document> queue;
+    private final dbManager dbManager;
+    private final Crawler crawler;
+    private final ExecutorService insertPool;
+    private final Semaphore inFlightBatches = new Semaphore(WRITERS);
+    private volatile boolean running = true;
+
+    // insert metrics, the latency figures cover the time since the last stats() call
+    private final AtomicLong insertedDocs = new AtomicLong();
+    private final AtomicLong failedDocs = new AtomicLong();
+    private final AtomicLong batchesSinceReport = new AtomicLong();
+    private final AtomicLong insertNanosSinceReport = new AtomicLong();
+    private final AtomicLong maxInsertNanosSinceReport = new AtomicLong();
+    private volatile long lastCheckpoint = System.currentTimeMillis();
+
+    DbWriterThread(BlockingQueue<Document> queue, dbManager dbManager, Crawler crawler) {
+        this.queue = queue;
+        this.dbManager = dbManager;
+        this.crawler = crawler;
+        this.insertPool = Executors.newFixedThreadPool(WRITERS);
+    }
+
+    public void shutdown() {
+        running = false;
+    }
+
+    @Override
+    public void run() {
+        List<Document> batch = new ArrayList<>(BATCH_SIZE);
+        long batchStart = 0;
+        long lastSideWrite = System.currentTimeMillis();
+
+        try {
+            while (running || !queue.isEmpty()) {
+                // wait for the next document, but no longer than the current batch may age
+                long waitMs = batch.isEmpty()
+                        ? FLUSH_INTERVAL_MS
+                        : Math.max(1, batchStart + FLUSH_INTERVAL_MS - System.currentTimeMillis());
+                Document doc = queue.poll(waitMs, TimeUnit.MILLISECONDS);
+                if (doc != null) {
+                    if (batch.isEmpty()) batchStart = System.currentTimeMillis();
+                    batch.add(doc);
+                    queue.drainTo(batch, BATCH_SIZE - batch.size());
+                }
+
+                long now = System.currentTimeMillis();
+                boolean full = batch.size() >= BATCH_SIZE;
+                boolean old = !batch.isEmpty() && now - batchStart >= FLUSH_INTERVAL_MS;
+                boolean last = !running && queue.isEmpty() && !batch.isEmpty();
+                if (full || old || last) {
+                    submit(batch);
+                    batch = new ArrayList<>(BATCH_SIZE);
+                }
+
+                if (now - lastSideWrite >= SIDE_WRITE_INTERVAL_MS) {
+                    // a recrawl mostly produces updates, don't hold them back until an insert batch fills
+                    writeSideDocuments();
+                    lastSideWrite = now;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Insert any remaining documents
+        if (!batch.isEmpty()) {
+            insert(batch);
+        }
+        insertPool.shutdown();
+        try {
+            if (!insertPool.awaitTermination(60, TimeUnit.SECONDS)) {
+                System.err.println("DB writer stopped with inserts still running");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writeSideDocuments();
+        System.out.println("DB writer finished, " + insertedDocs.get() + " documents inserted");
+    }
+
+    // Hands a batch to the insert pool, blocking while WRITERS inserts are already running
+    private void submit(List<Document> batch) throws InterruptedException {
+        inFlightBatches.acquire();
+        try {
+            insertPool.execute(() -> {
+                try {
+                    insert(batch);
+                } finally {
+                    inFlightBatches.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlightBatches.release();
+            insert(batch);
+        }
+    }
+
+    private void insert(List<Document> batch) {
+        long start = System.nanoTime();
+        List<Document> stored = dbManager.insertDocuments(batch);
+        long elapsed = System.nanoTime() - start;
+        failedDocs.addAndGet(batch.size() - stored.size());
+        if (!stored.isEmpty()) {
+            // only what Mongo acknowledged counts, a failed batch says nothing about insert latency
+            insertedDocs.addAndGet(stored.size());
+            batchesSinceReport.incrementAndGet();
+            insertNanosSinceReport.addAndGet(elapsed);
+            maxInsertNanosSinceReport.accumulateAndGet(elapsed, Math::max);
+            try {
+                crawler.documentsStored(stored);
+            } catch (RuntimeException e) {
+                System.err.println("Store listener failed: " + e.getMessage());
+            }
+        }
+
+        // the journal is incremental, but a checkpoint per batch would still be wasteful
+        long now = System.currentTimeMillis();
+        if (now - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+            lastCheckpoint = now;
+            crawler.saveState();
+        }
+    }
+
+    private void writeSideDocuments() {
+        dbManager.insertAliases(crawler.drainAliases());
+        dbManager.updateCrawledDocuments(crawler.drainRecrawls());
+    }
+
+    // Queue depth and insert latency since the previous call, for the periodic crawler stats
+    public String stats() {
+        long batches = batchesSinceReport.getAndSet(0);
+        long nanos = insertNanosSinceReport.getAndSet(0);
+        long maxNanos = maxInsertNanosSinceReport.getAndSet(0);
+        return String.format("db writer: queue %d/%d, %d docs inserted, %d failed, %d batches last period, insert avg %d ms max %d ms, %d inserts running",
+                queue.size(), queue.size() + queue.remainingCapacity(), insertedDocs.get(), failedDocs.get(), batches,
+                batches == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos / batches),
+                TimeUnit.NANOSECONDS.toMillis(maxNanos),
+                WRITERS - inFlightBatches.availablePermits());
+    }
+}
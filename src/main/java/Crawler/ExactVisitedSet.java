@@ -0,0 +1,47 @@
+package Crawler;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Keeps every URL string, exact but memory hungry on large crawls
+public class ExactVisitedSet implements VisitedSet {
+    private static final int BYTES_PER_ENTRY = 120; // rough: node + String + chars for a ~40 char URL
+
+    private final Set<String> urls = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public boolean add(String url) {
+        return urls.add(url);
+    }
+
+    @Override
+    public boolean contains(String url) {
+        return urls.contains(url);
+    }
+
+    @Override
+    public long size() {
+        return urls.size();
+    }
+
+    @Override
+    public long memoryBytes() {
+        return (long) urls.size() * BYTES_PER_ENTRY;
+    }
+
+    @Override
+    public Collection<String> urls() {
+        return urls;
+    }
+
+    @Override
+    public void save() {
+        // stored in Mongo with the rest of the crawler state
+    }
+
+    @Override
+    public String stats() {
+        return "exact visited set: " + size() + " urls, ~" + memoryBytes() / (1024 * 1024) + " MB";
+    }
+}
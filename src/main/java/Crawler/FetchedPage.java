@@ -0,0 +1,71 @@
+package Crawler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Result of one page fetch, independent of the HTTP library that produced it
+public class FetchedPage {
+    private final String url;       // URL taken from the frontier
+    private final String finalUrl;  // URL after redirects
+    private final int statusCode;
+    private final Map<String, String> headers; // lower-cased header names
+    private final String body;
+    private final String abortReason; // set when the download was stopped early, the body is then empty
+
+    public FetchedPage(String url, String finalUrl, int statusCode, Map<String, String> headers, String body) {
+        this(url, finalUrl, statusCode, headers, body, null);
+    }
+
+    public FetchedPage(String url, String finalUrl, int statusCode, Map<String, String> headers, String body,
+                       String abortReason) {
+        this.url = url;
+        this.finalUrl = finalUrl != null ? finalUrl : url;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body != null ? body : "";
+        this.abortReason = abortReason;
+    }
+
+    // Lower-cases header names and keeps the first value of repeated headers
+    public static Map<String, String> flattenHeaders(Map<String, List<String>> multiHeaders) {
+        Map<String, String> headers = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : multiHeaders.entrySet()) {
+            if (entry.getKey() == null || entry.getValue().isEmpty()) continue;
+            headers.putIfAbsent(entry.getKey().toLowerCase(), entry.getValue().get(0));
+        }
+        return headers;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getFinalUrl() {
+        return finalUrl;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public boolean isAborted() {
+        return abortReason != null;
+    }
+
+    public String getAbortReason() {
+        return abortReason;
+    }
+}
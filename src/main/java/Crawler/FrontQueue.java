@@ -0,0 +1,62 @@
+package Crawler;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+// One priority level of the frontier's front queues
+interface FrontQueue {
+    void add(String url);
+
+    String poll();
+
+    boolean isEmpty();
+
+    long size();
+
+    // URLs currently held on the heap
+    Collection<String> inMemory();
+
+    // True if queued URLs survive a restart without being saved elsewhere
+    boolean isPersistent();
+
+    void sync();
+
+    // Plain in-memory queue, everything lives on the heap
+    class InMemory implements FrontQueue {
+        private final ArrayDeque<String> queue = new ArrayDeque<>();
+
+        @Override
+        public void add(String url) {
+            queue.add(url);
+        }
+
+        @Override
+        public String poll() {
+            return queue.poll();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return queue.isEmpty();
+        }
+
+        @Override
+        public long size() {
+            return queue.size();
+        }
+
+        @Override
+        public Collection<String> inMemory() {
+            return queue;
+        }
+
+        @Override
+        public boolean isPersistent() {
+            return false;
+        }
+
+        @Override
+        public void sync() {
+        }
+    }
+}
@@ -0,0 +1,525 @@
+package Crawler;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Mercator style URL frontier.
+// Front queues order URLs by priority, back queues hold the URLs of one host each,
+// and a min-heap keyed on "next allowed fetch time" decides which host is served next.
+// A host is handed to one worker at a time and only becomes ready again after release().
+// With a spill directory the front queues overflow to memory-mapped segment files, so the
+// frontier can grow far past the heap and is restored from disk on restart.
+// With an OpicEstimator the level of a URL comes from its OPIC cash instead of its path depth.
+// Fetch outcomes feed HostHealth, which stretches the delay of slow hosts and parks failing ones;
+// parked hosts don't count against maxBackQueues, so they can't crowd out healthy hosts.
+public class Frontier {
+    public static final int NUM_PRIORITIES = 5;
+    static final long DEFAULT_POLITENESS_DELAY_MS = 1000; // between two fetches on the same host
+    private static final int MAX_REMEMBERED_HOSTS = 10000;
+    private static final String MEMORY_FILE = "memory.dat";
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition hostReady = lock.newCondition();
+
+    // front queues, index 0 is the highest priority
+    private final List<FrontQueue> frontQueues = new ArrayList<>(NUM_PRIORITIES);
+    // host -> URLs waiting for that host
+    private final Map<String, ArrayDeque<String>> backQueues = new HashMap<>();
+    // hosts that have URLs and are not being fetched right now, ordered by next allowed fetch
+    private final PriorityQueue<HostSlot> readyHeap = new PriorityQueue<>();
+    // next allowed fetch for hosts whose back queue was retired, so a refill can't skip the delay
+    private final Map<String, Long> retiredHosts = new HashMap<>();
+    // hosts whose robots.txt asks for a longer delay than politenessDelayMs
+    private final Map<String, Long> crawlDelays = new HashMap<>();
+    private final HostHealth health;
+    // hosts with a back queue that wait for their circuit breaker to close
+    private final Set<String> parkedHosts = new HashSet<>();
+    private long droppedUrls = 0; // queued URLs of hosts that were given up
+
+    private final VisitedSet seen; // dedup at enqueue time
+    private final int maxBackQueues;
+    private final long politenessDelayMs;
+    private final Path spillDir; // null keeps everything on the heap
+    private long size = 0;
+    private int checkedOut = 0; // URLs handed out by poll() and not released yet
+    private volatile CrawlJournal journal;
+    private volatile boolean externalSource = false; // other processes may still send URLs
+    private volatile OpicEstimator importance; // null orders by path depth only
+    private volatile TrapDetector traps; // null admits every new URL
+
+    public Frontier(VisitedSet seen, int numWorkers) {
+        this(seen, numWorkers * 3, DEFAULT_POLITENESS_DELAY_MS, null);
+    }
+
+    public Frontier(VisitedSet seen, int numWorkers, Path spillDir) {
+        this(seen, numWorkers * 3, DEFAULT_POLITENESS_DELAY_MS, spillDir);
+    }
+
+    public Frontier(VisitedSet seen, int maxBackQueues, long politenessDelayMs, Path spillDir) {
+        this.seen = seen;
+        this.maxBackQueues = maxBackQueues;
+        this.politenessDelayMs = politenessDelayMs;
+        this.health = new HostHealth(politenessDelayMs);
+
+        Path dir = spillDir;
+        if (dir != null) {
+            try {
+                for (int i = 0; i < NUM_PRIORITIES; i++) {
+                    frontQueues.add(new SegmentQueue(dir.resolve("p" + i)));
+                }
+            } catch (IOException e) {
+                System.err.println("Cannot open frontier spill directory " + dir + ", keeping the frontier in memory: " + e.getMessage());
+                frontQueues.clear();
+                dir = null;
+            }
+        }
+        if (dir == null) {
+            for (int i = 0; i < NUM_PRIORITIES; i++) {
+                frontQueues.add(new FrontQueue.InMemory());
+            }
+        }
+        for (FrontQueue queue : frontQueues) {
+            size += queue.size();
+        }
+        this.spillDir = dir;
+        if (dir != null) {
+            loadMemoryFile();
+        }
+    }
+
+    private static class HostSlot implements Comparable<HostSlot> {
+        final String host;
+        final long nextFetchTime;
+
+        HostSlot(String host, long nextFetchTime) {
+            this.host = host;
+            this.nextFetchTime = nextFetchTime;
+        }
+
+        @Override
+        public int compareTo(HostSlot other) {
+            return Long.compare(nextFetchTime, other.nextFetchTime);
+        }
+    }
+
+    // A shard of a distributed crawl may receive URLs at any time, so it is never drained
+    public void setExternalSource(boolean externalSource) {
+        this.externalSource = externalSource;
+    }
+
+    public void setJournal(CrawlJournal journal) {
+        this.journal = journal;
+    }
+
+    public void setImportance(OpicEstimator importance) {
+        this.importance = importance;
+    }
+
+    public void setTrapDetector(TrapDetector traps) {
+        this.traps = traps;
+    }
+
+    // Adds a newly discovered URL, returns false if it was already seen or looks like part of a
+    // crawler trap. A rejected URL stays marked as seen, so it is judged only once.
+    public boolean add(String url, int priority) {
+        if (!seen.add(url)) {
+            return false;
+        }
+        TrapDetector traps = this.traps;
+        if (traps != null && !traps.admit(url)) {
+            return false;
+        }
+        enqueue(url, priority);
+        CrawlJournal journal = this.journal;
+        if (journal != null) {
+            journal.recordAdd(url);
+        }
+        return true;
+    }
+
+    public boolean add(String url) {
+        return add(url, priorityOf(url));
+    }
+
+    public boolean hasSeen(String url) {
+        return seen.contains(url);
+    }
+
+    // Marks a URL as seen without queueing it, returns false if it was seen before.
+    // Used for canonical URLs whose page was fetched under another URL.
+    public boolean markSeen(String url) {
+        return seen.add(url);
+    }
+
+    // Lets the trap detector compare a fetched page with its outlinks before they are added
+    public void inspectOutlinks(String pageUrl, List<String> outlinks) {
+        TrapDetector traps = this.traps;
+        if (traps != null) {
+            traps.inspectOutlinks(pageUrl, outlinks, this);
+        }
+    }
+
+    // Queues an already seen URL again at a higher level after its importance went up.
+    // The copy left at the lower level is dropped by poll() once the URL has been handed out.
+    public void promote(String url, int priority) {
+        enqueue(url, priority);
+    }
+
+    // Re-adds a URL loaded from saved state, bypassing the dedup check
+    public void restore(String url) {
+        seen.add(url);
+        enqueue(url, priorityOf(url));
+    }
+
+    private void enqueue(String url, int priority) {
+        int level = Math.max(0, Math.min(NUM_PRIORITIES - 1, priority));
+        lock.lock();
+        try {
+            String host = hostOf(url);
+            ArrayDeque<String> backQueue = backQueues.get(host);
+            if (backQueue != null) {
+                backQueue.add(url); // host is already active, skip the front queues
+            } else {
+                frontQueues.get(level).add(url);
+                refill();
+            }
+            size++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Returns the next URL of a host that may be fetched right now, or null on timeout.
+    // The caller must call release(url) once the fetch is done.
+    public String poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (true) {
+                refill();
+                HostSlot top = readyHeap.peek();
+                long remaining = deadline - System.nanoTime();
+                if (top == null) {
+                    if (remaining <= 0) return null;
+                    hostReady.awaitNanos(remaining);
+                    continue;
+                }
+
+                long wait = TimeUnit.MILLISECONDS.toNanos(top.nextFetchTime - System.currentTimeMillis());
+                if (wait > 0) {
+                    if (remaining <= 0) return null;
+                    hostReady.awaitNanos(Math.min(wait, remaining));
+                    continue;
+                }
+
+                readyHeap.poll();
+                parkedHosts.remove(top.host);
+                ArrayDeque<String> backQueue = backQueues.get(top.host);
+                String url = backQueue == null ? null : backQueue.poll();
+                if (url == null) {
+                    // stale slot, nothing left for this host
+                    backQueues.remove(top.host);
+                    continue;
+                }
+                size--;
+                OpicEstimator importance = this.importance;
+                if (importance != null && !importance.claim(url)) {
+                    // lower copy of a promoted URL, already fetched: nothing was fetched from the host
+                    if (backQueue.isEmpty()) {
+                        backQueues.remove(top.host);
+                        rememberHost(top.host, top.nextFetchTime);
+                    } else {
+                        readyHeap.add(top);
+                    }
+                    continue;
+                }
+                checkedOut++;
+                CrawlJournal journal = this.journal;
+                if (journal != null) {
+                    journal.recordVisit(url);
+                }
+                return url;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Feeds the outcome of a fetch into the host's health, statusCode is -1 if there was no response.
+    // Must be called before release(url).
+    public void reportFetch(String url, long latencyMs, int statusCode) {
+        lock.lock();
+        try {
+            health.record(hostOf(url), latencyMs, statusCode);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Request timeout for url: shorter than defaultTimeout for hosts known to answer quickly
+    public Duration fetchTimeout(String url, Duration defaultTimeout) {
+        lock.lock();
+        try {
+            return health.timeoutFor(hostOf(url), defaultTimeout);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Marks the fetch of url as finished and schedules its host again after the politeness delay,
+    // or the longer delay its health asks for
+    public void release(String url) {
+        lock.lock();
+        try {
+            checkedOut--;
+            String host = hostOf(url);
+            ArrayDeque<String> backQueue = backQueues.get(host);
+            if (health.isDead(host)) {
+                if (backQueue != null) {
+                    size -= backQueue.size();
+                    droppedUrls += backQueue.size();
+                    backQueues.remove(host);
+                }
+                refill();
+                hostReady.signalAll();
+                return;
+            }
+
+            long nextFetchTime = System.currentTimeMillis() + health.delayFor(host, delayFor(host));
+            long openUntil = health.openUntil(host);
+            if (backQueue != null && !backQueue.isEmpty()) {
+                if (openUntil > 0) {
+                    nextFetchTime = Math.max(nextFetchTime, openUntil);
+                    parkedHosts.add(host);
+                }
+                readyHeap.add(new HostSlot(host, nextFetchTime));
+            } else {
+                backQueues.remove(host);
+                rememberHost(host, Math.max(nextFetchTime, openUntil));
+                refill();
+            }
+            hostReady.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Crawl-delay from the host's robots.txt, only ever lengthens the default delay
+    public void setCrawlDelay(String host, long delayMs) {
+        lock.lock();
+        try {
+            if (delayMs > politenessDelayMs) {
+                crawlDelays.put(host, delayMs);
+            } else {
+                crawlDelays.remove(host);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long delayFor(String host) {
+        return crawlDelays.getOrDefault(host, politenessDelayMs);
+    }
+
+    // Moves URLs from the front queues into back queues until enough hosts are active.
+    // URLs whose host already has a back queue are appended to it.
+    private void refill() {
+        boolean added = false;
+        while (backQueues.size() - parkedHosts.size() < maxBackQueues) {
+            String url = pollFront();
+            if (url == null) break;
+
+            String host = hostOf(url);
+            if (health.isDead(host)) {
+                size--;
+                droppedUrls++;
+                continue;
+            }
+            ArrayDeque<String> backQueue = backQueues.get(host);
+            if (backQueue != null) {
+                backQueue.add(url);
+                continue;
+            }
+
+            backQueue = new ArrayDeque<>();
+            backQueue.add(url);
+            backQueues.put(host, backQueue);
+            Long retired = retiredHosts.remove(host);
+            long nextFetchTime = retired != null ? retired : System.currentTimeMillis();
+            long openUntil = health.openUntil(host);
+            if (openUntil > 0) {
+                nextFetchTime = Math.max(nextFetchTime, openUntil);
+                parkedHosts.add(host);
+            }
+            readyHeap.add(new HostSlot(host, nextFetchTime));
+            added = true;
+        }
+        if (added) {
+            hostReady.signalAll();
+        }
+    }
+
+    // Picks a front queue biased towards higher priorities, each level weighs twice the next one
+    private String pollFront() {
+        int totalWeight = 0;
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            if (!frontQueues.get(i).isEmpty()) totalWeight += weightOf(i);
+        }
+        if (totalWeight == 0) return null;
+
+        int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+        for (int i = 0; i < NUM_PRIORITIES; i++) {
+            FrontQueue queue = frontQueues.get(i);
+            if (queue.isEmpty()) continue;
+            pick -= weightOf(i);
+            if (pick < 0) return queue.poll();
+        }
+        return null;
+    }
+
+    private static int weightOf(int level) {
+        return 1 << (NUM_PRIORITIES - 1 - level);
+    }
+
+    private void rememberHost(String host, long nextFetchTime) {
+        if (retiredHosts.size() >= MAX_REMEMBERED_HOSTS) {
+            long now = System.currentTimeMillis();
+            retiredHosts.values().removeIf(time -> time <= now);
+        }
+        retiredHosts.put(host, nextFetchTime);
+    }
+
+    public long size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public String healthStats() {
+        lock.lock();
+        try {
+            return health.stats() + ", " + parkedHosts.size() + " hosts parked, " + droppedUrls + " URLs dropped";
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    // Nothing queued and nothing being fetched, so no new URL can show up any more
+    public boolean isDrained() {
+        if (externalSource) return false;
+        lock.lock();
+        try {
+            return size == 0 && checkedOut == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // True if the frontier is restored from its spill directory and needs no copy in the crawler state
+    public boolean isPersistent() {
+        return spillDir != null;
+    }
+
+    // Copy of every queued URL, used for saving the crawler state of an in-memory frontier
+    public List<String> snapshot() {
+        lock.lock();
+        try {
+            List<String> urls = new ArrayList<>();
+            for (ArrayDeque<String> queue : backQueues.values()) {
+                urls.addAll(queue);
+            }
+            for (FrontQueue queue : frontQueues) {
+                urls.addAll(queue.inMemory());
+            }
+            return urls;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Persists a spilling frontier: the URLs held on the heap (back queues and queue heads) go to
+    // a small file, the segment queues flush their mapped pages and positions
+    public void checkpoint() {
+        if (spillDir == null) return;
+        lock.lock();
+        try {
+            Path tmp = spillDir.resolve(MEMORY_FILE + ".tmp");
+            try (BufferedWriter writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                for (String url : snapshot()) {
+                    writer.write(url);
+                    writer.newLine();
+                }
+            }
+            Files.move(tmp, spillDir.resolve(MEMORY_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (FrontQueue queue : frontQueues) {
+                queue.sync();
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to checkpoint frontier: " + e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void loadMemoryFile() {
+        Path file = spillDir.resolve(MEMORY_FILE);
+        if (!Files.exists(file)) return;
+        int loaded = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String url;
+            while ((url = reader.readLine()) != null) {
+                if (url.isEmpty()) continue;
+                enqueue(url, priorityOf(url));
+                loaded++;
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to load frontier memory file: " + e.getMessage());
+        }
+        System.out.println("Frontier restored from " + spillDir + ": " + size + " URLs (" + loaded + " from memory file)");
+    }
+
+    // Shallow pages first: seeds and section pages usually lead to the rest of the site
+    public static int priorityOf(String url) {
+        try {
+            String path = URI.create(url).getPath();
+            int depth = 0;
+            if (path != null) {
+                for (String segment : path.split("/")) {
+                    if (!segment.isEmpty()) depth++;
+                }
+            }
+            if (depth <= 1) return 0;
+            if (depth <= 3) return 1;
+            return 2;
+        } catch (IllegalArgumentException e) {
+            return NUM_PRIORITIES - 1;
+        }
+    }
+
+    public static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host == null ? "" : host;
+        } catch (IllegalArgumentException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package Crawler;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+// Per-host fetch health, kept by the Frontier and only used under its lock.
+// The frontier already fetches one URL per host at a time, so the AIMD control acts on the delay
+// between two fetches: a slow or failed fetch doubles it, a fast one takes a fixed step off until
+// the politeness delay is reached again. FAILURE_THRESHOLD failures in a row open the circuit
+// breaker: the host is parked for BASE_BACKOFF, doubled on every further trip, and then gets a
+// single trial fetch. A success closes the breaker, a host that trips MAX_TRIPS times is given up.
+class HostHealth {
+    private static final long SLOW_FETCH_MS = 5_000;
+    private static final long MAX_DELAY_MS = 60_000;
+    private static final long DELAY_STEP_MS = 250;           // additive decrease per healthy fetch
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long BASE_BACKOFF_MS = 60_000;
+    private static final long MAX_BACKOFF_MS = 60L * 60 * 1000;
+    private static final int MAX_TRIPS = 6;
+    private static final long MIN_TIMEOUT_MS = 5_000;
+    private static final int TIMEOUT_LATENCY_FACTOR = 4;     // timeout = this * average latency
+    private static final int MAX_TRACKED_HOSTS = 100_000;
+
+    private final long baseDelayMs;
+    private final Map<String, State> hosts = new HashMap<>();
+    private long breakerTrips = 0;
+    private long deadHosts = 0;
+
+    private static class State {
+        long delayMs;
+        double avgLatencyMs = -1;   // exponentially weighted, -1 until the first fetch
+        int consecutiveFailures = 0;
+        int trips = 0;
+        long openUntil = 0;         // breaker is open while now < openUntil
+        boolean dead = false;
+
+        State(long delayMs) {
+            this.delayMs = delayMs;
+        }
+    }
+
+    HostHealth(long baseDelayMs) {
+        this.baseDelayMs = baseDelayMs;
+    }
+
+    // statusCode is -1 when the fetch failed without a response (timeout, refused, reset)
+    void record(String host, long latencyMs, int statusCode) {
+        State state = hosts.get(host);
+        if (state == null) {
+            prune();
+            state = new State(baseDelayMs);
+            hosts.put(host, state);
+        }
+        state.avgLatencyMs = state.avgLatencyMs < 0 ? latencyMs : 0.8 * state.avgLatencyMs + 0.2 * latencyMs;
+
+        boolean failed = statusCode < 0 || statusCode >= 500 || statusCode == 429;
+        if (!failed) {
+            state.consecutiveFailures = 0;
+            state.trips = 0;
+            if (latencyMs > SLOW_FETCH_MS) {
+                state.delayMs = Math.min(MAX_DELAY_MS, state.delayMs * 2);
+            } else {
+                state.delayMs = Math.max(baseDelayMs, state.delayMs - DELAY_STEP_MS);
+            }
+            return;
+        }
+
+        state.delayMs = Math.min(MAX_DELAY_MS, state.delayMs * 2);
+        state.consecutiveFailures++;
+        if (state.consecutiveFailures >= FAILURE_THRESHOLD || state.trips > 0) {
+            // a failed trial fetch of a half-open breaker trips it again straight away
+            state.consecutiveFailures = 0;
+            state.trips++;
+            breakerTrips++;
+            if (state.trips >= MAX_TRIPS) {
+                state.dead = true;
+                deadHosts++;
+                System.err.println("Giving up on host " + host + " after " + state.trips + " failed retries");
+                return;
+            }
+            long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << (state.trips - 1));
+            state.openUntil = System.currentTimeMillis() + backoff;
+            System.err.println("Circuit open for " + host + ", retrying in " + backoff / 1000 + " s");
+        }
+    }
+
+    // Delay after the last fetch of host, at least minDelayMs (politeness or Crawl-delay)
+    long delayFor(String host, long minDelayMs) {
+        State state = hosts.get(host);
+        return state == null ? minDelayMs : Math.max(minDelayMs, state.delayMs);
+    }
+
+    // Time the host may be fetched again after its breaker opened, 0 if it is closed
+    long openUntil(String host) {
+        State state = hosts.get(host);
+        return state == null || state.openUntil <= System.currentTimeMillis() ? 0 : state.openUntil;
+    }
+
+    boolean isDead(String host) {
+        State state = hosts.get(host);
+        return state != null && state.dead;
+    }
+
+    // Gives up on a slow host sooner than the default timeout once its usual latency is known
+    Duration timeoutFor(String host, Duration defaultTimeout) {
+        State state = hosts.get(host);
+        if (state == null || state.avgLatencyMs < 0) return defaultTimeout;
+        long timeout = Math.max(MIN_TIMEOUT_MS, (long) state.avgLatencyMs * TIMEOUT_LATENCY_FACTOR);
+        return timeout >= defaultTimeout.toMillis() ? defaultTimeout : Duration.ofMillis(timeout);
+    }
+
+    String stats() {
+        long throttled = hosts.values().stream().filter(s -> s.delayMs > baseDelayMs).count();
+        long open = hosts.values().stream().filter(s -> s.openUntil > System.currentTimeMillis()).count();
+        return String.format("host health: %d hosts tracked, %d slowed down, %d circuits open, %d trips, %d hosts given up",
+                hosts.size(), throttled, open, breakerTrips, deadHosts);
+    }
+
+    // Healthy hosts at the base delay carry no information worth keeping
+    private void prune() {
+        if (hosts.size() < MAX_TRACKED_HOSTS) return;
+        long now = System.currentTimeMillis();
+        hosts.values().removeIf(s -> !s.dead && s.openUntil <= now && s.delayMs <= baseDelayMs
+                && s.consecutiveFailures == 0);
+    }
+}
@@ -0,0 +1,104 @@
+package Crawler;
+
+import dbManager.dbManager;
+import org.bson.Document;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Moves discovered links to the shard that owns their host.
+// Links are buffered per target shard and written in batches to the crawler_outbox collection;
+// every shard periodically reads the batches addressed to it and feeds them to its own frontier,
+// where the local visited set drops what it has already seen.
+// A forwarded URL goes into the local visited set once its batch is in the outbox, so each one is
+// sent at most once and a crash before the write loses nothing that was marked as sent.
+// The receiver deletes a batch only after the journal has recorded its links, a crash in between
+// means the batch is read again.
+public class LinkForwarder {
+    private static final int MAX_BATCHES_PER_EXCHANGE = 100;
+
+    private final ShardRing ring;
+    private final dbManager mongo;
+    private final VisitedSet visited;
+    // links waiting for the next flush per target shard, a set so a link found twice is sent once
+    private final List<Set<String>> outgoing = new ArrayList<>();
+
+    private final AtomicLong forwarded = new AtomicLong();
+    private final AtomicLong received = new AtomicLong();
+
+    public LinkForwarder(ShardRing ring, dbManager mongo, VisitedSet visited) {
+        this.ring = ring;
+        this.mongo = mongo;
+        this.visited = visited;
+        for (int i = 0; i < ring.getShardCount(); i++) {
+            outgoing.add(ConcurrentHashMap.newKeySet());
+        }
+    }
+
+    // Queues url for its owner if another shard owns it. Returns false for local URLs.
+    public boolean forwardIfForeign(String url) {
+        int owner = ring.ownerOfUrl(url);
+        if (owner == ring.getShardId()) {
+            return false;
+        }
+        if (!visited.contains(url)) {
+            outgoing.get(owner).add(url);
+        }
+        return true;
+    }
+
+    // Like forwardIfForeign, without the seen check, for URLs that are already in the local frontier
+    public boolean handOffIfForeign(String url) {
+        int owner = ring.ownerOfUrl(url);
+        if (owner == ring.getShardId()) {
+            return false;
+        }
+        outgoing.get(owner).add(url);
+        return true;
+    }
+
+    // Sends the buffered links and adds the ones other shards sent us to the frontier
+    public void exchange(Frontier frontier, CrawlJournal journal) {
+        flush();
+        List<Document> batches = mongo.readForwardedBatches(ring.getShardId(), MAX_BATCHES_PER_EXCHANGE);
+        if (batches.isEmpty()) return;
+
+        List<Object> ids = new ArrayList<>();
+        for (Document batch : batches) {
+            ids.add(batch.get("_id"));
+            for (String url : batch.getList("urls", String.class, Collections.emptyList())) {
+                received.incrementAndGet();
+                frontier.add(url);
+            }
+        }
+        // the outbox keeps the batches until the frontier additions are journaled
+        if (journal.checkpoint()) {
+            mongo.deleteForwardedBatches(ids);
+        }
+    }
+
+    public void flush() {
+        for (int shard = 0; shard < outgoing.size(); shard++) {
+            Set<String> pending = outgoing.get(shard);
+            if (pending.isEmpty()) continue;
+            List<String> urls = new ArrayList<>(pending);
+            if (mongo.forwardUrls(shard, ring.getShardId(), urls)) {
+                for (String url : urls) {
+                    visited.add(url);
+                    pending.remove(url);
+                }
+                forwarded.addAndGet(urls.size());
+            }
+            // else the links stay buffered and are retried on the next exchange
+        }
+    }
+
+    public String stats() {
+        return "shard " + ring.getShardId() + "/" + ring.getShardCount() +
+                ": " + forwarded.get() + " links forwarded, " + received.get() + " received";
+    }
+}
@@ -0,0 +1,195 @@
+package Crawler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+
+// Online page importance (OPIC, Abiteboul et al.) used to order the frontier.
+// Every seed starts with one unit of cash. When a page is fetched its cash is taken and split
+// evenly over its outlinks, so a URL accumulates cash from every fetched page that links to it.
+// Cash relative to the average of the URLs still waiting decides the frontier level, and a URL
+// whose cash rises past its level is queued again higher up (the stale copy is skipped by claim()).
+// The cash a page had when it was fetched is its importance estimate and is stored with the page.
+// URLs are keyed by fingerprint in striped open addressing tables, about 20 bytes per URL.
+public class OpicEstimator {
+    public static final double SEED_CASH = 1.0;
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 1024; // power of two
+    // cash / average cash of waiting URLs needed for levels 0, 1, ... NUM_PRIORITIES - 2
+    private static final double[] LEVEL_RATIOS = {4.0, 1.5, 0.75, 0.25};
+
+    private static final byte NOT_QUEUED = Frontier.NUM_PRIORITIES;
+    private static final byte FETCHED = (byte) 0x80;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final long maxEntries;
+    private final AtomicLong entries = new AtomicLong();
+    private final AtomicLong waiting = new AtomicLong();   // tracked URLs not fetched yet
+    private final DoubleAdder waitingCash = new DoubleAdder();
+    private final AtomicLong promotions = new AtomicLong();
+
+    public OpicEstimator(long maxEntries) {
+        this.maxEntries = maxEntries;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private static class Stripe {
+        long[] keys = new long[INITIAL_STRIPE_CAPACITY];
+        double[] cash = new double[INITIAL_STRIPE_CAPACITY];
+        byte[] state = new byte[INITIAL_STRIPE_CAPACITY]; // FETCHED bit | level the URL is queued at
+        int used = 0;
+
+        // Slot of key, or -1 when absent
+        int find(long key) {
+            int mask = keys.length - 1;
+            for (int slot = (int) key & mask; ; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return slot;
+                if (keys[slot] == 0) return -1;
+            }
+        }
+
+        int insert(long key) {
+            if ((used + 1) * 4L > keys.length * 3L) grow();
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0) slot = (slot + 1) & mask;
+            keys[slot] = key;
+            cash[slot] = 0;
+            state[slot] = NOT_QUEUED;
+            used++;
+            return slot;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldCash = cash;
+            byte[] oldState = state;
+            keys = new long[oldKeys.length * 2];
+            cash = new double[oldKeys.length * 2];
+            state = new byte[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) continue;
+                int slot = (int) oldKeys[i] & mask;
+                while (keys[slot] != 0) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                cash[slot] = oldCash[i];
+                state[slot] = oldState[i];
+            }
+        }
+    }
+
+    private static long keyOf(String url) {
+        long key = UrlFingerprint.of(url);
+        return key == 0 ? 1 : key; // 0 marks an empty slot
+    }
+
+    private Stripe stripeOf(long key) {
+        return stripes[(int) (key >>> 58) & (STRIPES - 1)];
+    }
+
+    // Adds cash to a discovered URL and returns the frontier level it now deserves,
+    // or -1 when the table is full and the URL is not tracked
+    public int credit(String url, double amount) {
+        long key = keyOf(url);
+        Stripe stripe = stripeOf(key);
+        double cash;
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0) {
+                if (entries.get() >= maxEntries) return -1;
+                slot = stripe.insert(key);
+                entries.incrementAndGet();
+                waiting.incrementAndGet();
+            }
+            if ((stripe.state[slot] & FETCHED) != 0) return Frontier.NUM_PRIORITIES - 1;
+            stripe.cash[slot] += amount;
+            cash = stripe.cash[slot];
+        }
+        waitingCash.add(amount);
+        return levelFor(cash);
+    }
+
+    // Records the level a newly queued url went to
+    public void queued(String url, int level) {
+        long key = keyOf(url);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot >= 0 && (stripe.state[slot] & FETCHED) == 0) {
+                stripe.state[slot] = (byte) Math.min(stripe.state[slot], level);
+            }
+        }
+    }
+
+    // True if url waits in this run's frontier below level, which is then recorded as its new level.
+    // URLs queued by an earlier run or already fetched are never promoted, so nothing is fetched twice.
+    public boolean promote(String url, int level) {
+        long key = keyOf(url);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0) return false;
+            byte state = stripe.state[slot];
+            if ((state & FETCHED) != 0 || state == NOT_QUEUED || state <= level) return false;
+            stripe.state[slot] = (byte) level;
+        }
+        promotions.incrementAndGet();
+        return true;
+    }
+
+    // Called when the frontier hands url out. Returns false if it was handed out before,
+    // which happens for the lower copy of a promoted URL.
+    public boolean claim(String url) {
+        long key = keyOf(url);
+        Stripe stripe = stripeOf(key);
+        double cash;
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0) {
+                if (entries.get() >= maxEntries) return true;
+                slot = stripe.insert(key);
+                entries.incrementAndGet();
+                stripe.state[slot] = FETCHED;
+                return true;
+            }
+            if ((stripe.state[slot] & FETCHED) != 0) return false;
+            stripe.state[slot] |= FETCHED;
+            cash = stripe.cash[slot];
+        }
+        waiting.decrementAndGet();
+        waitingCash.add(-cash);
+        return true;
+    }
+
+    // Takes the cash of a fetched page so it can be passed on to its outlinks
+    public double collect(String url) {
+        long key = keyOf(url);
+        Stripe stripe = stripeOf(key);
+        synchronized (stripe) {
+            int slot = stripe.find(key);
+            if (slot < 0) return 0;
+            double cash = stripe.cash[slot];
+            stripe.cash[slot] = 0;
+            return cash;
+        }
+    }
+
+    private int levelFor(double cash) {
+        long count = waiting.get();
+        double average = count == 0 ? SEED_CASH : waitingCash.sum() / count;
+        if (average <= 0) return 0;
+        double ratio = cash / average;
+        for (int level = 0; level < LEVEL_RATIOS.length; level++) {
+            if (ratio >= LEVEL_RATIOS[level]) return level;
+        }
+        return Frontier.NUM_PRIORITIES - 1;
+    }
+
+    public String stats() {
+        long count = waiting.get();
+        return String.format("opic: %d URLs tracked, %d waiting, average cash %.3g, %d promotions",
+                entries.get(), count, count == 0 ? 0.0 : waitingCash.sum() / count, promotions.get());
+    }
+}
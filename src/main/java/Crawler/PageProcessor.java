@@ -0,0 +1,305 @@
+package Crawler;
+
+import org.bson.Document;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Turns a fetched page into a stored document and new frontier entries.
+// Shared by every fetch mode, so it must stay thread safe.
+public class PageProcessor {
+    private final Frontier frontier;
+    private final AtomicInteger pageCount;   // pages stored, journaled with the crawl state
+    private final AtomicInteger fetchedCount; // pages and revisits of this run, checked against the page limit
+    private final RobotsManager robotsM;
+    private final BlockingQueue<Document> documentQueue;
+    private final Crawler crawler;
+    private final SimHashIndex nearDuplicates;
+    private final OpicEstimator importance; // null when the frontier is ordered by depth
+
+    private static final int MAX_IMAGES_PER_PAGE = 50;
+    // "full" stores the whole body as before, "main" only the content ContentExtractor keeps
+    private final boolean keepBoilerplate = "full".equalsIgnoreCase(CrawlerConfig.get("CRAWLER_CONTENT", "main"));
+    // elements the snippet generator picks a matching passage from
+    private static final String SNIPPET_BLOCKS = "p, li, div, h1, h2, h3, h4, h5, h6";
+
+    public PageProcessor(
+            Frontier frontier,
+            AtomicInteger pageCount,
+            AtomicInteger fetchedCount,
+            RobotsManager robotsM,
+            BlockingQueue<Document> documentQueue,
+            Crawler crawler,
+            SimHashIndex nearDuplicates,
+            OpicEstimator importance) {
+        this.frontier = frontier;
+        this.pageCount = pageCount;
+        this.fetchedCount = fetchedCount;
+        this.robotsM = robotsM;
+        this.documentQueue = documentQueue;
+        this.crawler = crawler;
+        this.nearDuplicates = nearDuplicates;
+        this.importance = importance;
+    }
+
+    // Headers for a conditional GET of url, empty unless it is being recrawled
+    public Map<String, String> conditionalHeaders(String url) {
+        RecrawlInfo previous = crawler.getRecrawlInfo(url);
+        return previous == null ? Collections.emptyMap() : previous.conditionalHeaders();
+    }
+
+    public void process(FetchedPage page) throws InterruptedException {
+        String url = page.getUrl();
+        RecrawlInfo previous = crawler.getRecrawlInfo(url);
+
+        // Not modified: only the revisit schedule changes, the stored document and its index entries stay.
+        // A page that is gone is removed, any other error response keeps the stored copy for a retry.
+        if (previous != null && (page.getStatusCode() == 304 || page.getStatusCode() >= 400)) {
+            fetchedCount.incrementAndGet();
+            if (page.getStatusCode() == 304) {
+                crawler.recordRecrawl(url, previous.unchanged(page));
+            } else if (RecrawlInfo.isGone(page.getStatusCode())) {
+                crawler.recordRemoval(url);
+            } else {
+                crawler.recordRecrawl(url, previous.failed());
+            }
+            return;
+        }
+
+        // Non-HTML or non-English, the fetch stopped after the headers or the first few KB
+        if (page.isAborted()) {
+            System.out.println("skipped " + url + ": " + page.getAbortReason());
+            return;
+        }
+
+        org.jsoup.nodes.Document doc = Jsoup.parse(page.getBody(), page.getFinalUrl());
+
+        try {
+            String htmlLang = doc.selectFirst("html").attr("lang");
+            if (!htmlLang.toLowerCase().startsWith("en")) {
+                return;
+            }
+
+        } catch (NullPointerException e) {
+            System.err.println("this not as an lang attr" + url);
+        }
+
+        // A recrawled page keeps the URL it is stored under, a new page is stored under its
+        // canonical or redirect target and the fetched URL becomes an alias of it
+        String storedUrl = previous != null ? url : resolveStoredUrl(page, doc);
+        if (storedUrl == null) {
+            return; // stored under its canonical URL already, or that URL is queued
+        }
+
+        // Navigation, footers and scripts are left out of the stored, hashed and indexed content
+        Element main = keepBoilerplate ? doc.body() : ContentExtractor.extract(doc.body());
+        String bodyText = main != null ? main.text() : "";
+        String contentHash = RecrawlInfo.hash(bodyText);
+        long simHash = SimHash.of(bodyText);
+
+        if (previous != null) {
+            // a revisit uses up the page limit of this run, but adds no page to the stored count
+            fetchedCount.incrementAndGet();
+            // Servers without validators still answer 200, the content hash catches unchanged pages
+            if (contentHash.equals(previous.getContentHash())) {
+                crawler.recordRecrawl(url, previous.unchanged(page));
+                return;
+            }
+        } else {
+            // Mirrors and near-copies are recorded as aliases of the first copy and not stored again.
+            // Pages with hardly any text aren't compared, they would all look like copies of each other.
+            String original = SimHash.isComparable(bodyText) ? nearDuplicates.checkAndAdd(simHash, storedUrl) : null;
+            if (original != null) {
+                crawler.recordAlias(storedUrl, original, "near-duplicate");
+                return;
+            }
+            pageCount.incrementAndGet();
+            fetchedCount.incrementAndGet();
+        }
+
+        // Extract page data
+        String title = doc.title() != null && !doc.title().isEmpty() ? doc.title() : "Untitled";
+        String content = main != null ? main.html() : "";
+
+        Elements links = doc.select("a[href]");
+        Elements images = doc.select("img[src]");
+
+        Set<String> linksText = ConcurrentHashMap.newKeySet();
+        Set<String> imageUrls = ConcurrentHashMap.newKeySet();
+        List<String> crawlable = new ArrayList<>();
+
+        // Process links
+        for (Element link : links) {
+            String newUrl = link.absUrl("href");
+            if (newUrl.isEmpty()) continue;
+
+            String normalizedUrl = crawler.normalizeUrl(newUrl, url);
+            if (normalizedUrl != null && normalizedUrl.length() < 500) { // Avoid extremely long URLs
+                linksText.add(normalizedUrl);
+                if (crawler.forwardIfForeign(normalizedUrl)) {
+                    continue; // another shard owns this host
+                }
+                // URLs the cached robots.txt rules deny are dropped here, hosts without cached
+                // rules are checked by shouldFetch, so parsing never waits on a robots.txt fetch
+                if (!robotsM.isKnownDisallowed(normalizedUrl)) {
+                    crawlable.add(normalizedUrl);
+                }
+            }
+        }
+        double opic = enqueueLinks(url, linksText.size(), crawlable);
+
+        // Process images with limit 50 image per page
+        int imageCount = 0;
+        for (Element image : images) {
+            if (imageCount >= MAX_IMAGES_PER_PAGE) break;
+
+            String imageUrl = image.absUrl("src");
+            if (imageUrl.isEmpty()) continue;
+
+            imageUrls.add(imageUrl);
+            imageCount++;
+        }
+
+        // Create document and add to queue
+        Document bsonDoc = new Document("url", storedUrl)
+                .append("title", title)
+                .append("content", content)
+                .append("timestamp", System.currentTimeMillis())
+                .append("indexed", false)
+                .append("images_indexed", false)
+                .append("links", linksText)
+                .append("images", imageUrls)
+                .append("simhash", simHash);
+        if (importance != null) {
+            bsonDoc.append("opic", opic);
+        }
+        appendExtraction(bsonDoc, main, bodyText);
+
+        if (previous != null) {
+            // Changed page: rewrite it in place and let the indexers pick it up again
+            Document fields = new Document(bsonDoc);
+            fields.remove("url");
+            fields.putAll(previous.changed(page, contentHash));
+            // failed attempts of the old content don't count against the new one
+            crawler.recordRecrawl(url, fields, List.of("indexed_attempts", "images_indexed_attempts"));
+            return;
+        }
+        bsonDoc.putAll(RecrawlInfo.firstVisit(page, contentHash));
+
+        // Blocks while the db writer is behind, which slows the fetchers down instead of losing the page
+        documentQueue.put(bsonDoc);
+    }
+
+    // URL to store a new page under: its rel=canonical link, else the URL it redirected to, else
+    // the fetched URL. Returns null when that URL is already seen, so the page is stored (or will
+    // be) by that URL's own fetch, or when it belongs to another shard, which is sent the link.
+    private String resolveStoredUrl(FetchedPage page, org.jsoup.nodes.Document doc) {
+        String url = page.getUrl();
+        String target = null;
+        String reason = null;
+
+        Element canonical = doc.selectFirst("link[rel=canonical][href]");
+        if (canonical != null) {
+            target = crawler.normalizeUrl(canonical.absUrl("href"), null);
+            reason = "canonical";
+        }
+        if (target == null && !page.getFinalUrl().equals(url)) {
+            target = crawler.normalizeUrl(page.getFinalUrl(), null);
+            reason = "redirect";
+        }
+        if (target == null || target.equals(url)) {
+            return url;
+        }
+
+        crawler.recordAlias(url, target, reason);
+        if (crawler.forwardIfForeign(target) || !frontier.markSeen(target)) {
+            return null;
+        }
+        return target;
+    }
+
+    // Queues the crawlable outlinks of url and returns the OPIC cash url had when it was fetched.
+    // The cash is split over all outlinks, the share of links owned by other shards or blocked
+    // by robots.txt is dropped. The frontier drops URLs it has already seen unless their
+    // new cash earns them a higher level.
+    private double enqueueLinks(String url, int outDegree, List<String> crawlable) {
+        frontier.inspectOutlinks(url, crawlable);
+        if (importance == null) {
+            for (String link : crawlable) {
+                frontier.add(link);
+            }
+            return 0;
+        }
+
+        double cash = importance.collect(url);
+        double share = outDegree == 0 ? 0 : cash / outDegree;
+        for (String link : crawlable) {
+            int level = importance.credit(link, share);
+            if (level < 0) {
+                frontier.add(link); // estimator is full
+            } else if (frontier.add(link, level)) {
+                importance.queued(link, level);
+            } else if (importance.promote(link, level)) {
+                frontier.promote(link, level);
+            }
+        }
+        return cash;
+    }
+
+    // Stores what the indexer and the snippet generator need, so neither has to parse the HTML again:
+    // the body text, the h1/h2 texts and [start, end) offsets of the text blocks within the body text
+    private static void appendExtraction(Document bsonDoc, Element body, String bodyText) {
+        List<String> h1s = new ArrayList<>();
+        List<String> h2s = new ArrayList<>();
+        List<Integer> paragraphs = new ArrayList<>();
+
+        if (body != null) {
+            for (Element h1 : body.select("h1")) {
+                h1s.add(h1.text());
+            }
+            for (Element h2 : body.select("h2")) {
+                h2s.add(h2.text());
+            }
+
+            // blocks come in document order, so each one starts at or after the previous block
+            int from = 0;
+            for (Element block : body.select(SNIPPET_BLOCKS)) {
+                String blockText = block.text();
+                if (blockText.isEmpty()) continue;
+                int start = bodyText.indexOf(blockText, from);
+                if (start < 0) continue;
+                paragraphs.add(start);
+                paragraphs.add(start + blockText.length());
+                from = start;
+            }
+        }
+
+        bsonDoc.append("text", bodyText)
+                .append("h1s", h1s)
+                .append("h2s", h2s)
+                .append("paragraphs", paragraphs);
+    }
+
+    // Gate in front of every fetch: the host must belong to this shard and robots.txt must allow the URL
+    public boolean shouldFetch(String url) {
+        if (crawler.handOffIfForeign(url)) {
+            return false;
+        }
+        return canCrawl(url);
+    }
+
+    // robots.txt rules are compiled and cached per host, so checking a URL of a known host is cheap.
+    // For a new host it blocks on the robots.txt fetch, so it is only called where blocking is fine.
+    public boolean canCrawl(String url) {
+        return robotsM.canCrawl(url);
+    }
+}
@@ -0,0 +1,105 @@
+package Crawler;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Cheap checks that let a page fetch stop before the whole body is downloaded.
+// They mirror what PageProcessor would decide after a full parse: only HTML is indexed, and only
+// pages whose <html> tag has an English lang attribute. Each check returns the reason to drop the
+// page, or null when the page has to be fetched (or read further) to decide.
+public final class PageSniffer {
+    public static final int SNIFF_BYTES = 4096; // the <html> tag and meta charset are normally in here
+
+    private static final Pattern HTML_TAG = Pattern.compile("<html(?=[\\s>/])[^>]*>");
+    private static final Pattern LANG_ATTR = Pattern.compile("\\slang\\s*=\\s*[\"']?([a-z_-]*)");
+    private static final Pattern META_CHARSET = Pattern.compile("<meta[^>]+charset\\s*=\\s*[\"']?([a-z0-9_.:-]+)");
+
+    private PageSniffer() { }
+
+    // Decides from the response headers alone, so the body is never requested
+    public static String checkHeaders(Map<String, String> headers) {
+        String contentType = headers.get("content-type");
+        if (contentType != null) {
+            String mime = mimeType(contentType);
+            if (!mime.isEmpty() && !mime.equals("text/html") && !mime.equals("application/xhtml+xml")) {
+                return "content-type " + mime;
+            }
+        }
+        String contentLanguage = headers.get("content-language");
+        if (contentLanguage != null && !contentLanguage.isBlank()) {
+            for (String tag : contentLanguage.split(",")) {
+                if (isEnglish(tag.trim())) return null;
+            }
+            return "content-language " + contentLanguage.trim();
+        }
+        return null;
+    }
+
+    // Looks at the first bytes of the body. complete is true when head is the whole body.
+    public static String checkHead(byte[] head, int length, boolean complete) {
+        String text = lowerAscii(head, Math.min(length, SNIFF_BYTES));
+        int firstTag = text.indexOf('<');
+        if (firstTag < 0) {
+            return complete || length >= SNIFF_BYTES ? "not html" : null;
+        }
+
+        Matcher html = HTML_TAG.matcher(text);
+        if (!html.find()) {
+            return null; // the tag may follow a long comment or be missing, let the parser decide
+        }
+        Matcher lang = LANG_ATTR.matcher(html.group());
+        if (!lang.find()) {
+            return "no lang attribute";
+        }
+        return isEnglish(lang.group(1)) ? null : "lang " + lang.group(1);
+    }
+
+    // charset parameter of the Content-Type header, null if absent or unknown
+    public static Charset headerCharset(Map<String, String> headers) {
+        String contentType = headers.get("content-type");
+        if (contentType == null) return null;
+        int param = contentType.toLowerCase().indexOf("charset=");
+        if (param < 0) return null;
+        String name = contentType.substring(param + "charset=".length()).split(";")[0].trim().replace("\"", "");
+        return charsetOrNull(name);
+    }
+
+    // <meta charset> or <meta http-equiv content="...; charset=..."> in the head, null if absent or unknown
+    public static Charset metaCharset(byte[] head, int length) {
+        Matcher meta = META_CHARSET.matcher(lowerAscii(head, Math.min(length, SNIFF_BYTES)));
+        return meta.find() ? charsetOrNull(meta.group(1)) : null;
+    }
+
+    // Body text in the charset of the Content-Type header, else <meta charset>, else UTF-8
+    public static String decode(byte[] body, int length, Map<String, String> headers) {
+        Charset charset = headerCharset(headers);
+        if (charset == null) charset = metaCharset(body, length);
+        if (charset == null) charset = StandardCharsets.UTF_8;
+        return new String(body, 0, length, charset);
+    }
+
+    private static Charset charsetOrNull(String name) {
+        try {
+            return name.isEmpty() ? null : Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String mimeType(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        return (semicolon >= 0 ? contentType.substring(0, semicolon) : contentType).trim().toLowerCase();
+    }
+
+    private static boolean isEnglish(String languageTag) {
+        return languageTag.toLowerCase().startsWith("en");
+    }
+
+    // Markup is ASCII in every charset a crawler meets, so the head is scanned without decoding it
+    private static String lowerAscii(byte[] bytes, int length) {
+        return new String(bytes, 0, length, StandardCharsets.ISO_8859_1).toLowerCase();
+    }
+}
@@ -0,0 +1,101 @@
+package Crawler;
+
+import org.bson.Document;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Validators and revisit schedule of a stored page.
+// Pages that keep changing are revisited sooner, stable pages back off up to MAX_INTERVAL_MS.
+public class RecrawlInfo {
+    public static final long DEFAULT_INTERVAL_MS = 24L * 60 * 60 * 1000;     // 1 day
+    private static final long MIN_INTERVAL_MS = 60L * 60 * 1000;             // 1 hour
+    private static final long MAX_INTERVAL_MS = 30L * 24 * 60 * 60 * 1000;  // 30 days
+
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final String contentHash;
+    private final long revisitInterval;
+
+    public RecrawlInfo(String url, String etag, String lastModified, String contentHash, long revisitInterval) {
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.contentHash = contentHash;
+        this.revisitInterval = revisitInterval > 0 ? revisitInterval : DEFAULT_INTERVAL_MS;
+    }
+
+    public static RecrawlInfo fromDocument(Document doc) {
+        Long interval = doc.getLong("revisitInterval");
+        return new RecrawlInfo(
+                doc.getString("url"),
+                doc.getString("etag"),
+                doc.getString("lastModified"),
+                doc.getString("contentHash"),
+                interval != null ? interval : DEFAULT_INTERVAL_MS);
+    }
+
+    // Hash of the extracted page text, so markup-only churn (tokens, timestamps in attributes) is ignored
+    public static String hash(String text) {
+        return Long.toHexString(UrlFingerprint.of(text));
+    }
+
+    // If-None-Match / If-Modified-Since for a conditional GET
+    public Map<String, String> conditionalHeaders() {
+        Map<String, String> headers = new HashMap<>();
+        if (etag != null && !etag.isEmpty()) headers.put("If-None-Match", etag);
+        if (lastModified != null && !lastModified.isEmpty()) headers.put("If-Modified-Since", lastModified);
+        return headers;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public String getContentHash() {
+        return contentHash;
+    }
+
+    // Fields written for a page that did not change (304 or same content hash)
+    public Document unchanged(FetchedPage page) {
+        return scheduleFields(page, contentHash, Math.min(MAX_INTERVAL_MS, revisitInterval * 2));
+    }
+
+    // Fields written for a page that answered with a transient error (5xx, 429, ...): the stored copy,
+    // its validators and its interval stay, the page is tried again after MIN_INTERVAL_MS
+    public Document failed() {
+        long now = System.currentTimeMillis();
+        return new Document("lastChecked", now)
+                .append("nextVisit", now + MIN_INTERVAL_MS);
+    }
+
+    // 404 and 410 say the page is gone for good, its stored copy is removed
+    public static boolean isGone(int statusCode) {
+        return statusCode == 404 || statusCode == 410;
+    }
+
+    // Fields written for a page whose content changed
+    public Document changed(FetchedPage page, String newContentHash) {
+        return scheduleFields(page, newContentHash, Math.max(MIN_INTERVAL_MS, revisitInterval / 2));
+    }
+
+    // Fields of a page stored for the first time
+    public static Document firstVisit(FetchedPage page, String contentHash) {
+        return new RecrawlInfo(page.getUrl(), null, null, contentHash, DEFAULT_INTERVAL_MS)
+                .scheduleFields(page, contentHash, DEFAULT_INTERVAL_MS);
+    }
+
+    private Document scheduleFields(FetchedPage page, String hash, long interval) {
+        long now = System.currentTimeMillis();
+        // a 304 may omit the validators, keep the old ones then
+        String newEtag = page.getHeader("etag");
+        String newLastModified = page.getHeader("last-modified");
+        return new Document("etag", newEtag != null ? newEtag : etag)
+                .append("lastModified", newLastModified != null ? newLastModified : lastModified)
+                .append("contentHash", hash)
+                .append("revisitInterval", interval)
+                .append("lastChecked", now)
+                .append("nextVisit", now + interval);
+    }
+}
@@ -1,168 +1,163 @@
 package Crawler;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
+import java.io.IOException;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.concurrent.*;
+import java.util.function.BiConsumer;
 
 public class RobotsManager {
 
-    //  Used to cache parsed robots.txt rules per domain (host)
-    // Format: domain -> map of [path -> true (disallow) or false (allow)]
-    private final ConcurrentHashMap<String, Map<String, Boolean>> robotsRules = new ConcurrentHashMap<>();
+    //  Compiled robots.txt rules per origin (scheme://host[:port])
+    private final ConcurrentHashMap<String, CacheEntry> robotsRules = new ConcurrentHashMap<>();
 
+    // Told about every host that asks for a Crawl-delay, so the frontier can space its fetches
+    private volatile BiConsumer<String, Long> crawlDelayListener;
 
-    private static final String USER_AGENT = "Falcony/1.0";
 
+    private static final String USER_AGENT = CrawlerHttpClient.USER_AGENT;
 
-    private static final int ROBOTS_TIMEOUT_MS = 15000; // 15 seconds
 
-
-    private static final int MAX_ROBOTS_SIZE = 1000000; // 1MB
-
-    // ✅ Fetches and parses robots.txt for the given URL's host
-    public void parseRobots(String url) {
-        try {
-
-            URI uri = new URI(url);
-            String host = uri.getHost();
-            if (host == null || host.isEmpty()) return;
+    private static final Duration ROBOTS_TIMEOUT = Duration.ofSeconds(15);
 
 
-            String scheme = uri.getScheme() == null ? "http" : uri.getScheme();
+    private static final int MAX_ROBOTS_SIZE = 1000000; // 1MB
 
+    private static final long RULES_TTL_MS = 24L * 60 * 60 * 1000;  // re-read robots.txt once a day
+    private static final long FAILURE_TTL_MS = 60L * 60 * 1000;     // unreachable robots.txt, retry after an hour
+    private static final long MAX_CRAWL_DELAY_MS = 60_000;          // larger delays would stall the host forever
+    private static final int MAX_CACHED_ORIGINS = 100_000;
 
-            String robotsUrl = scheme + "://" + host;
-            if (uri.getPort() > 0 && uri.getPort() != 80 && uri.getPort() != 443) {
-                robotsUrl += ":" + uri.getPort(); // include non-standard ports
-            }
-            robotsUrl += "/robots.txt";
+    // One entry per origin. The first caller fetches, everyone else waits on the same future,
+    // so a new host gets exactly one robots.txt request however many workers reach it at once.
+    private static class CacheEntry {
+        final CompletableFuture<RobotsRules> rules = new CompletableFuture<>();
+        volatile long expiresAt = Long.MAX_VALUE; // set once the fetch is done
 
-            // Fetch and parse the robots.txt file
-            Map<String, Boolean> rules = fetchRobotsTxt(robotsUrl);
+        boolean isFresh(long now) {
+            return expiresAt > now;
+        }
+    }
 
-            // Save the rules to cache
-            robotsRules.put(host, rules);
+    public void setCrawlDelayListener(BiConsumer<String, Long> listener) {
+        this.crawlDelayListener = listener;
+    }
 
-        } catch (Exception ignored) {
-            // If error happens, treat the host as fully allowed (no rules)
-            try {
-                URI uri = new URI(url);
-                String host = uri.getHost();
-                if (host != null) {
-                    robotsRules.put(host, new HashMap<>());
-                }
-            } catch (Exception e) {
+    //  Main function to check if a given URL is allowed to be crawled.
+    //  Blocks while robots.txt of a new host is fetched, up to 2 * ROBOTS_TIMEOUT.
+    public boolean canCrawl(String url) {
+        try {
+            URI uri = new URI(url);
+            String host = uri.getHost();
+            if (host == null || host.isEmpty()) return true;
+            return rulesFor(uri).isAllowed(pathOf(uri));
 
-            }
+        } catch (Exception e) {
+            return true;
         }
     }
 
-    //  Downloads robots.txt content and parses it into disallowed/allowed paths
-    private Map<String, Boolean> fetchRobotsTxt(String robotsUrl) {
-        Map<String, Boolean> disallowedPaths = new HashMap<>();
+    //  Non-blocking check for link extraction: true only when the host's rules are already
+    //  cached and deny the URL. Unknown hosts are not fetched here, canCrawl decides at fetch time.
+    public boolean isKnownDisallowed(String url) {
         try {
+            URI uri = new URI(url);
+            String host = uri.getHost();
+            if (host == null || host.isEmpty()) return false;
 
-            URL url = new URL(robotsUrl);
-            URLConnection connection = url.openConnection();
-            connection.setConnectTimeout(ROBOTS_TIMEOUT_MS);
-            connection.setReadTimeout(ROBOTS_TIMEOUT_MS);
-            connection.setRequestProperty("User-Agent", USER_AGENT);
-
-            // read
-            StringBuilder content = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null && content.length() < MAX_ROBOTS_SIZE) {
-                    content.append(line).append("\n");
-                }
+            CacheEntry entry = robotsRules.get(originOf(uri));
+            if (entry == null || !entry.isFresh(System.currentTimeMillis()) || !entry.rules.isDone()) {
+                return false;
             }
+            RobotsRules rules = entry.rules.getNow(RobotsRules.ALLOW_ALL);
+            return !rules.isAllowed(pathOf(uri));
 
-            // Parse the content and extract rules
-            disallowedPaths = parseRobotsTxt(content.toString());
-
-        } catch (Exception ignored) {
-            // If failed to download robots.txt, treat as fully allowed
+        } catch (Exception e) {
+            return false;
         }
-
-        return disallowedPaths;
     }
 
-    //  Parses raw robots.txt content and returns a map of path rules
-    private Map<String, Boolean> parseRobotsTxt(String content) {
-        Map<String, Boolean> rules = new HashMap<>();
-        boolean inRelevantUserAgent = false;
-
-        // Process file line by line
-        for (String line : content.split("\n")) {
-            line = line.trim();
-
-            // Ignore empty lines and comments
-            if (line.isEmpty() || line.startsWith("#")) continue;
-
-            // Track if current rules belong to our User-Agent or wildcard '*'
-            if (line.toLowerCase().startsWith("user-agent:")) {
-                String agent = line.substring("user-agent:".length()).trim().toLowerCase();
-                inRelevantUserAgent = agent.equals("*") || agent.contains(USER_AGENT.toLowerCase());
-            }
-
-            // If the section is for us, read allow/disallow rules
-            if (inRelevantUserAgent && line.toLowerCase().startsWith("disallow:")) {
-                String path = line.substring("disallow:".length()).trim();
-                if (!path.isEmpty()) rules.put(path, true);
-                else rules.put(path, false);
-            }
+    private static String pathOf(URI uri) {
+        String path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+        if (uri.getRawQuery() != null) {
+            path += "?" + uri.getRawQuery();
+        }
+        return path;
+    }
 
-            if (inRelevantUserAgent && line.toLowerCase().startsWith("allow:")) {
-                String path = line.substring("allow:".length()).trim();
-                if (!path.isEmpty()) rules.put(path, false);
+    // Cached rules of the URL's origin, fetched on first use or after they expired
+    private RobotsRules rulesFor(URI uri) throws InterruptedException {
+        String origin = originOf(uri);
+        long now = System.currentTimeMillis();
+
+        CacheEntry current = robotsRules.get(origin);
+        if (current == null || !current.isFresh(now)) {
+            CacheEntry created = new CacheEntry();
+            CacheEntry winner = robotsRules.compute(origin,
+                    (key, old) -> old != null && old.isFresh(now) ? old : created);
+            if (winner == created) {
+                load(origin, uri.getHost(), created);
+                pruneIfNeeded();
             }
+            current = winner;
         }
 
-        return rules;
+        try {
+            return current.rules.get(2 * ROBOTS_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            return RobotsRules.ALLOW_ALL;
+        }
     }
 
-    //  Main function to check if a given URL is allowed to be crawled
-    public boolean canCrawl(String url) {
+    //  Fetches and compiles robots.txt for one origin and publishes the result
+    private void load(String origin, String host, CacheEntry entry) {
+        RobotsRules rules;
+        long ttl;
         try {
-            URI uri = new URI(url);
-            String host = uri.getHost();
-            String path = uri.getPath() == null ? "/" : uri.getPath();
+            rules = fetchRobotsTxt(origin + "/robots.txt");
+            ttl = RULES_TTL_MS;
+        } catch (Exception e) {
+            // If failed to download robots.txt, treat as fully allowed, but only for a while
+            rules = RobotsRules.ALLOW_ALL;
+            ttl = FAILURE_TTL_MS;
+        }
 
-            // If rules for the host are not loaded yet, fetch them
-            if (!robotsRules.containsKey(host)) {
-                parseRobots(url);
-            }
+        entry.expiresAt = System.currentTimeMillis() + ttl;
+        entry.rules.complete(rules);
 
-            // Get the rules (or empty map if none)
-            Map<String, Boolean> rules = robotsRules.getOrDefault(host, new HashMap<>());
-
-            // Check path against all disallowed rules
-            for (Map.Entry<String, Boolean> entry : rules.entrySet()) {
-                String rulePath = entry.getKey();
-                boolean isDisallowed = entry.getValue();
-
-                if (!isDisallowed) continue; // skip allowed rules
-
-                // Match wildcard rules (ending with *)
-                if (rulePath.endsWith("*")) {
-                    String prefix = rulePath.substring(0, rulePath.length() - 1);
-                    if (path.startsWith(prefix)) return false;
-                }
-                // Match exact or prefix match
-                else if (path.equals(rulePath) || path.startsWith(rulePath + "/")) {
-                    return false;
-                }
-            }
+        BiConsumer<String, Long> listener = crawlDelayListener;
+        if (listener != null && rules.getCrawlDelayMs() > 0) {
+            listener.accept(host, Math.min(rules.getCrawlDelayMs(), MAX_CRAWL_DELAY_MS));
+        }
+    }
 
-            return true;
+    //  Downloads robots.txt through the shared crawler client. A missing file (4xx) allows everything, server errors throw.
+    private RobotsRules fetchRobotsTxt(String robotsUrl) throws IOException, InterruptedException {
+        FetchedPage response = CrawlerHttpClient.shared()
+                .fetch(robotsUrl, Collections.emptyMap(), ROBOTS_TIMEOUT, MAX_ROBOTS_SIZE);
+        int status = response.getStatusCode();
+        if (status >= 400 && status < 500) {
+            return RobotsRules.ALLOW_ALL;
+        }
+        if (status >= 500) {
+            throw new IOException("robots.txt returned " + status);
+        }
+        return RobotsRules.parse(response.getBody(), USER_AGENT);
+    }
 
-        } catch (Exception e) {
-            return true;
+    private void pruneIfNeeded() {
+        if (robotsRules.size() <= MAX_CACHED_ORIGINS) return;
+        long now = System.currentTimeMillis();
+        robotsRules.values().removeIf(entry -> !entry.isFresh(now));
+    }
+
+    private static String originOf(URI uri) {
+        String scheme = uri.getScheme() == null ? "http" : uri.getScheme().toLowerCase();
+        String origin = scheme + "://" + uri.getHost().toLowerCase();
+        if (uri.getPort() > 0 && uri.getPort() != 80 && uri.getPort() != 443) {
+            origin += ":" + uri.getPort(); // include non-standard ports
         }
+        return origin;
     }
 }
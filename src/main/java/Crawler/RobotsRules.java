@@ -0,0 +1,201 @@
+package Crawler;
+
+import java.util.*;
+
+// Compiled robots.txt group for one host.
+// Allow/Disallow patterns are stored in a trie where '*' becomes a self-looping wildcard node and a
+// trailing '$' anchors the pattern at the end of the URL. A path is matched by walking every live
+// trie state at once, so each check is linear in the path length no matter how many rules there are.
+// The longest matching pattern decides, Allow wins a tie (RFC 9309).
+public class RobotsRules {
+    public static final RobotsRules ALLOW_ALL = new RobotsRules(new Node(false), 0);
+
+    private final Node root;
+    private final long crawlDelayMs;
+
+    private RobotsRules(Node root, long crawlDelayMs) {
+        this.root = root;
+        this.crawlDelayMs = crawlDelayMs;
+    }
+
+    private static class Node {
+        final boolean wildcard;     // reached through '*', stays live while characters are consumed
+        final Map<Character, Node> next = new HashMap<>();
+        Node star;
+        Rule rule;                  // pattern ends here, matches any continuation
+        Rule endRule;               // pattern ends here with '$', matches only the end of the URL
+
+        Node(boolean wildcard) {
+            this.wildcard = wildcard;
+        }
+    }
+
+    private static class Rule {
+        final boolean allow;
+        final int length;
+
+        Rule(boolean allow, int length) {
+            this.allow = allow;
+            this.length = length;
+        }
+
+        boolean beats(Rule other) {
+            return other == null || length > other.length || (length == other.length && allow && !other.allow);
+        }
+    }
+
+    // Parses robots.txt content, keeping the group for userAgent or else the '*' group
+    public static RobotsRules parse(String content, String userAgent) {
+        String ourAgent = productToken(userAgent);
+        List<String[]> ownRules = new ArrayList<>();
+        List<String[]> defaultRules = new ArrayList<>();
+        double ownDelay = -1;
+        double defaultDelay = -1;
+
+        boolean inOwnGroup = false;
+        boolean inDefaultGroup = false;
+        boolean ownGroupSeen = false; // a group naming us, even one without rules
+        boolean lastWasAgent = false;
+
+        for (String rawLine : content.split("\n")) {
+            int comment = rawLine.indexOf('#');
+            String line = (comment >= 0 ? rawLine.substring(0, comment) : rawLine).trim();
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue;
+
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            if (key.equals("user-agent")) {
+                // consecutive User-agent lines share one group
+                if (!lastWasAgent) {
+                    inOwnGroup = false;
+                    inDefaultGroup = false;
+                }
+                String agent = productToken(value);
+                if (agent.equals("*")) {
+                    inDefaultGroup = true;
+                } else if (!agent.isEmpty() && agent.equals(ourAgent)) {
+                    inOwnGroup = true;
+                    ownGroupSeen = true;
+                }
+                lastWasAgent = true;
+                continue;
+            }
+            lastWasAgent = false;
+
+            if (key.equals("allow") || key.equals("disallow")) {
+                // an empty Disallow allows everything, which is the default anyway
+                if (value.isEmpty()) continue;
+                String[] rule = {key, value};
+                if (inOwnGroup) ownRules.add(rule);
+                if (inDefaultGroup) defaultRules.add(rule);
+            } else if (key.equals("crawl-delay")) {
+                try {
+                    double seconds = Double.parseDouble(value);
+                    if (inOwnGroup) ownDelay = seconds;
+                    if (inDefaultGroup) defaultDelay = seconds;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+
+        // a group naming us replaces the '*' group entirely, even when all it has is an empty Disallow
+        List<String[]> rules = ownGroupSeen ? ownRules : defaultRules;
+        double delay = ownGroupSeen ? ownDelay : defaultDelay;
+
+        Node root = new Node(false);
+        for (String[] rule : rules) {
+            insert(root, rule[1], rule[0].equals("allow"));
+        }
+        return new RobotsRules(root, delay > 0 ? (long) (delay * 1000) : 0);
+    }
+
+    // "Falcony/1.0 (+https://...)" -> "falcony", the part a User-agent line names (RFC 9309)
+    private static String productToken(String agent) {
+        int end = 0;
+        while (end < agent.length() && agent.charAt(end) != '/' && !Character.isWhitespace(agent.charAt(end))) {
+            end++;
+        }
+        return agent.substring(0, end).toLowerCase();
+    }
+
+    private static void insert(Node root, String pattern, boolean allow) {
+        Rule rule = new Rule(allow, pattern.length());
+        Node node = root;
+        int end = pattern.length();
+        boolean anchored = pattern.endsWith("$");
+        if (anchored) end--;
+
+        for (int i = 0; i < end; i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                if (node.wildcard) continue; // "**" is the same as "*"
+                if (node.star == null) node.star = new Node(true);
+                node = node.star;
+            } else {
+                node = node.next.computeIfAbsent(c, k -> new Node(false));
+            }
+        }
+
+        if (anchored) {
+            if (rule.beats(node.endRule)) node.endRule = rule;
+        } else if (rule.beats(node.rule)) {
+            node.rule = rule;
+        }
+    }
+
+    // path is the URL path plus "?query" if there is one
+    public boolean isAllowed(String path) {
+        if (path.isEmpty()) path = "/";
+        if (path.equals("/robots.txt")) return true;
+
+        Rule best = null;
+        List<Node> live = new ArrayList<>();
+        activate(live, root);
+
+        for (int i = 0; ; i++) {
+            for (Node node : live) {
+                if (node.rule != null && node.rule.beats(best)) best = node.rule;
+            }
+            if (i == path.length()) {
+                for (Node node : live) {
+                    if (node.endRule != null && node.endRule.beats(best)) best = node.endRule;
+                }
+                break;
+            }
+
+            char c = path.charAt(i);
+            List<Node> nextLive = new ArrayList<>();
+            for (Node node : live) {
+                if (node.wildcard) activate(nextLive, node);
+                Node child = node.next.get(c);
+                if (child != null) activate(nextLive, child);
+            }
+            if (nextLive.isEmpty()) break;
+            live = nextLive;
+        }
+
+        return best == null || best.allow;
+    }
+
+    // Adds node and the wildcard reachable from it without consuming a character
+    private static void activate(List<Node> live, Node node) {
+        while (node != null) {
+            if (!containsNode(live, node)) live.add(node);
+            node = node.star;
+        }
+    }
+
+    private static boolean containsNode(List<Node> live, Node node) {
+        for (Node n : live) {
+            if (n == node) return true;
+        }
+        return false;
+    }
+
+    // Crawl-delay of the group in milliseconds, 0 if none was given
+    public long getCrawlDelayMs() {
+        return crawlDelayMs;
+    }
+}
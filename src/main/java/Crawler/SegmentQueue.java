@@ -0,0 +1,194 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayDeque;
+import java.util.Collection;
+
+// FIFO of URLs with a bounded in-memory head and an overflow of memory-mapped, append-only
+// segment files. Records are [int length][UTF-8 bytes]; a length of -1 means "continue in the
+// next segment". Fully consumed segments are deleted. Positions are kept in a small meta file
+// written by sync(), and the writer tail is re-scanned on open so URLs appended after the last
+// sync survive a process crash. Not thread safe, the Frontier lock guards it.
+public class SegmentQueue implements FrontQueue {
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int NEXT_SEGMENT = -1;
+    private static final int HEAD_CAPACITY = 10000;
+    private static final int REFILL_BATCH = 1000;
+    private static final String META_FILE = "queue.meta";
+
+    private final Path dir;
+    private final ArrayDeque<String> head = new ArrayDeque<>();
+
+    private int readSegment = 0;
+    private int readPosition = 0;
+    private MappedByteBuffer readBuffer;
+
+    private int writeSegment = 0;
+    private int writePosition = 0;
+    private MappedByteBuffer writeBuffer;
+
+    private long onDisk = 0; // URLs written to segments and not read back yet
+
+    public SegmentQueue(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+        loadMeta();
+        writeBuffer = map(writeSegment);
+        recoverTail();
+    }
+
+    @Override
+    public void add(String url) {
+        // keep FIFO order: once anything is spilled, new URLs go behind it
+        if (onDisk == 0 && head.size() < HEAD_CAPACITY) {
+            head.add(url);
+            return;
+        }
+        try {
+            append(url);
+        } catch (IOException e) {
+            System.err.println("Frontier spill failed, keeping URL in memory: " + e.getMessage());
+            head.add(url);
+        }
+    }
+
+    @Override
+    public String poll() {
+        if (head.isEmpty() && onDisk > 0) {
+            refill();
+        }
+        return head.poll();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head.isEmpty() && onDisk == 0;
+    }
+
+    @Override
+    public long size() {
+        return head.size() + onDisk;
+    }
+
+    @Override
+    public Collection<String> inMemory() {
+        return head;
+    }
+
+    @Override
+    public boolean isPersistent() {
+        return true;
+    }
+
+    private void append(String url) throws IOException {
+        byte[] bytes = url.getBytes(StandardCharsets.UTF_8);
+        // leave room for the NEXT_SEGMENT marker
+        if (writePosition + 4 + bytes.length > SEGMENT_SIZE - 4) {
+            writeBuffer.putInt(writePosition, NEXT_SEGMENT);
+            writeBuffer.force();
+            writeSegment++;
+            writePosition = 0;
+            writeBuffer = map(writeSegment);
+        }
+        writeBuffer.putInt(writePosition, bytes.length);
+        writeBuffer.put(writePosition + 4, bytes);
+        writePosition += 4 + bytes.length;
+        onDisk++;
+    }
+
+    // Moves up to REFILL_BATCH URLs from the segments into the head
+    private void refill() {
+        try {
+            for (int i = 0; i < REFILL_BATCH && onDisk > 0; i++) {
+                if (readBuffer == null) {
+                    readBuffer = readSegment == writeSegment ? writeBuffer : map(readSegment);
+                }
+                int length = readBuffer.getInt(readPosition);
+                if (length == NEXT_SEGMENT) {
+                    readBuffer = null;
+                    Files.deleteIfExists(segmentPath(readSegment));
+                    readSegment++;
+                    readPosition = 0;
+                    i--;
+                    continue;
+                }
+                byte[] bytes = new byte[length];
+                readBuffer.get(readPosition + 4, bytes);
+                readPosition += 4 + length;
+                head.add(new String(bytes, StandardCharsets.UTF_8));
+                onDisk--;
+            }
+        } catch (IOException e) {
+            System.err.println("Frontier refill failed: " + e.getMessage());
+        }
+    }
+
+    // Flushes the mapped pages and records the positions
+    @Override
+    public void sync() {
+        try {
+            writeBuffer.force();
+            Path tmp = dir.resolve(META_FILE + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeInt(readSegment);
+                out.writeInt(readPosition);
+                out.writeInt(writeSegment);
+                out.writeInt(writePosition);
+                out.writeLong(onDisk);
+            }
+            Files.move(tmp, dir.resolve(META_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Failed to sync frontier segments in " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private void loadMeta() throws IOException {
+        Path meta = dir.resolve(META_FILE);
+        if (!Files.exists(meta)) return;
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(meta))) {
+            readSegment = in.readInt();
+            readPosition = in.readInt();
+            writeSegment = in.readInt();
+            writePosition = in.readInt();
+            onDisk = in.readLong();
+        }
+    }
+
+    // Counts records appended after the last sync, the mapped pages outlive a process crash
+    private void recoverTail() throws IOException {
+        long recovered = 0;
+        while (true) {
+            if (writePosition + 4 > SEGMENT_SIZE) break;
+            int length = writeBuffer.getInt(writePosition);
+            if (length == 0) break;
+            if (length == NEXT_SEGMENT) {
+                writeSegment++;
+                writePosition = 0;
+                writeBuffer = map(writeSegment);
+                continue;
+            }
+            if (length < 0 || writePosition + 4 + length > SEGMENT_SIZE) break; // torn write
+            writePosition += 4 + length;
+            recovered++;
+        }
+        onDisk += recovered;
+        if (onDisk > 0 || recovered > 0) {
+            System.out.println("Frontier queue " + dir + ": " + onDisk + " URLs on disk (" + recovered + " after last sync)");
+        }
+    }
+
+    private MappedByteBuffer map(int segment) throws IOException {
+        try (FileChannel channel = FileChannel.open(segmentPath(segment),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+        }
+    }
+
+    private Path segmentPath(int segment) {
+        return dir.resolve(String.format("segment-%06d.log", segment));
+    }
+}
@@ -0,0 +1,79 @@
+package Crawler;
+
+import java.util.Arrays;
+
+// Consistent-hash ring that splits the host space between CRAWLER_SHARD_COUNT crawler processes.
+// Each shard owns VIRTUAL_NODES points on the ring and a host belongs to the first point at or after
+// its hash, so hosts spread evenly and changing the shard count only moves about 1/N of them.
+// Every URL of a host is crawled by the same shard, which keeps politeness and robots.txt local.
+public class ShardRing {
+    private static final int VIRTUAL_NODES = 512;
+
+    private final int shardId;
+    private final int shardCount;
+    private final long[] points;
+    private final int[] owners;
+
+    public ShardRing(int shardId, int shardCount) {
+        if (shardCount < 1 || shardId < 0 || shardId >= shardCount) {
+            throw new IllegalArgumentException("Invalid shard " + shardId + " of " + shardCount);
+        }
+        this.shardId = shardId;
+        this.shardCount = shardCount;
+
+        long[][] ring = new long[shardCount * VIRTUAL_NODES][];
+        int i = 0;
+        for (int shard = 0; shard < shardCount; shard++) {
+            for (int v = 0; v < VIRTUAL_NODES; v++) {
+                ring[i++] = new long[]{UrlFingerprint.of("shard-" + shard + "#" + v), shard};
+            }
+        }
+        Arrays.sort(ring, (a, b) -> Long.compare(a[0], b[0]));
+        points = new long[ring.length];
+        owners = new int[ring.length];
+        for (int j = 0; j < ring.length; j++) {
+            points[j] = ring[j][0];
+            owners[j] = (int) ring[j][1];
+        }
+    }
+
+    // CRAWLER_SHARD_ID of CRAWLER_SHARD_COUNT, a single shard by default
+    public static ShardRing fromConfig() {
+        return new ShardRing(CrawlerConfig.getInt("CRAWLER_SHARD_ID", 0), CrawlerConfig.getInt("CRAWLER_SHARD_COUNT", 1));
+    }
+
+    public int ownerOf(String host) {
+        if (shardCount == 1) return 0;
+        long hash = UrlFingerprint.of(host);
+        int index = Arrays.binarySearch(points, hash);
+        if (index < 0) index = -index - 1;
+        if (index == points.length) index = 0; // wrap around
+        return owners[index];
+    }
+
+    public int ownerOfUrl(String url) {
+        return ownerOf(Frontier.hostOf(url));
+    }
+
+    public boolean isLocal(String url) {
+        return shardCount == 1 || ownerOfUrl(url) == shardId;
+    }
+
+    public boolean isSharded() {
+        return shardCount > 1;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    // Appended to the names of per-shard state (Mongo collections, bloom file, frontier directory),
+    // empty for a single crawler so existing state keeps working
+    public String stateSuffix() {
+        return shardCount == 1 ? "" : "_shard" + shardId;
+    }
+}
@@ -0,0 +1,72 @@
+package Crawler;
+
+// 64-bit SimHash (Charikar) over overlapping word shingles of the page text.
+// Pages that differ only in a few words end up a small Hamming distance apart.
+// Short pages have too few shingles for the distance to mean anything (an empty page hashes to 0,
+// the same as every other empty page), so they are only compared when isComparable says so.
+public final class SimHash {
+    private static final int SHINGLE_SIZE = 3;
+    private static final int MIN_WORDS = 20; // fewer words than this and pages aren't compared
+
+    private SimHash() { }
+
+    public static long of(String text) {
+        int[] weights = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        int words = 0;
+
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (start == i) break;
+
+            window[words % SHINGLE_SIZE] = UrlFingerprint.of(text.substring(start, i).toLowerCase());
+            words++;
+            if (words >= SHINGLE_SIZE) {
+                long shingle = 0;
+                for (int k = 0; k < SHINGLE_SIZE; k++) {
+                    // order matters inside a shingle
+                    shingle = UrlFingerprint.mix(shingle * 31 + window[(words + k) % SHINGLE_SIZE]);
+                }
+                addFeature(weights, shingle);
+            }
+        }
+        if (words > 0 && words < SHINGLE_SIZE) {
+            // very short pages, use the words themselves
+            for (int k = 0; k < words; k++) addFeature(weights, window[k]);
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) fingerprint |= 1L << bit;
+        }
+        return fingerprint;
+    }
+
+    // True when text has at least MIN_WORDS words, stops counting there
+    public static boolean isComparable(String text) {
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length && words < MIN_WORDS) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i == length) break;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) i++;
+            words++;
+        }
+        return words >= MIN_WORDS;
+    }
+
+    private static void addFeature(int[] weights, long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += ((feature >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+}
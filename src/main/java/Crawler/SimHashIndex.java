@@ -0,0 +1,83 @@
+package Crawler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// In-memory index of page SimHashes for near-duplicate lookups.
+// The 64 bits are split into maxDistance + 1 bands; two fingerprints within maxDistance bits
+// must agree on at least one whole band (pigeonhole), so only pages sharing a band are compared.
+public class SimHashIndex {
+    private final int maxDistance;
+    private final int bands;
+    private final int bandBits;
+    private final List<Map<Long, List<Entry>>> tables = new ArrayList<>();
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    private static class Entry {
+        final long fingerprint;
+        final String url;
+
+        Entry(long fingerprint, String url) {
+            this.fingerprint = fingerprint;
+            this.url = url;
+        }
+    }
+
+    public SimHashIndex(int maxDistance) {
+        this.maxDistance = Math.max(0, Math.min(maxDistance, 15));
+        this.bands = this.maxDistance + 1;
+        this.bandBits = 64 / bands;
+        for (int i = 0; i < bands; i++) {
+            tables.add(new HashMap<>());
+        }
+    }
+
+    // Returns the URL of an already indexed near-duplicate, or registers fingerprint under url and returns null
+    public synchronized String checkAndAdd(long fingerprint, String url) {
+        checked.incrementAndGet();
+        for (int band = 0; band < bands; band++) {
+            List<Entry> candidates = tables.get(band).get(bandKey(fingerprint, band));
+            if (candidates == null) continue;
+            for (Entry candidate : candidates) {
+                if (SimHash.distance(candidate.fingerprint, fingerprint) <= maxDistance) {
+                    duplicates.incrementAndGet();
+                    return candidate.url;
+                }
+            }
+        }
+
+        Entry entry = new Entry(fingerprint, url);
+        for (int band = 0; band < bands; band++) {
+            tables.get(band).computeIfAbsent(bandKey(fingerprint, band), k -> new ArrayList<>(1)).add(entry);
+        }
+        return null;
+    }
+
+    private long bandKey(long fingerprint, int band) {
+        // the last band takes the leftover bits
+        int shift = band * bandBits;
+        int width = band == bands - 1 ? 64 - shift : bandBits;
+        long mask = width == 64 ? -1L : (1L << width) - 1;
+        return (fingerprint >>> shift) & mask;
+    }
+
+    public long getChecked() {
+        return checked.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public String stats() {
+        long total = checked.get();
+        double rate = total == 0 ? 0 : (double) duplicates.get() / total;
+        return String.format("near-duplicates: %d of %d pages (%.2f%%), max distance %d",
+                duplicates.get(), total, rate * 100, maxDistance);
+    }
+}
@@ -0,0 +1,191 @@
+package Crawler;
+
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Keeps calendars, faceted search, session paths and other endless URL spaces out of the frontier.
+// Every newly seen URL passes admit(), which rejects
+//  - paths deeper than MAX_DEPTH segments or with more than MAX_QUERY_PARAMS parameters,
+//  - paths that repeat a segment more than MAX_SEGMENT_REPEATS times (/a/b/a/b/a/b),
+//  - hosts that already used their budget of queued URLs,
+//  - URL patterns (digits and ids replaced by placeholders) that reached their limit, and new
+//    patterns once a host produced MAX_PATTERNS_PER_HOST of them. Article names and other slugs
+//    don't collapse into a pattern, every page is one of its own, so by default that limit is the
+//    host budget and such a host gets its whole budget. Lower it for hosts that spin out patterns.
+// inspectOutlinks() looks at a fetched page: when most of its outlinks are new URLs of the page's
+// own pattern, the page is generating its neighbours (next day, next filter) and the pattern
+// gets the much smaller SUSPECT_PATTERN_LIMIT.
+public class TrapDetector {
+    private static final int MAX_DEPTH = CrawlerConfig.getInt("CRAWLER_TRAP_MAX_DEPTH", 10);
+    private static final int MAX_QUERY_PARAMS = 6;
+    private static final int MAX_SEGMENT_REPEATS = 2;
+    private static final int HOST_BUDGET = CrawlerConfig.getInt("CRAWLER_HOST_BUDGET", 5000);
+    private static final int PATTERN_LIMIT = CrawlerConfig.getInt("CRAWLER_TRAP_PATTERN_LIMIT", 2000);
+    private static final int SUSPECT_PATTERN_LIMIT = 100;
+    private static final int MAX_PATTERNS_PER_HOST = CrawlerConfig.getInt("CRAWLER_TRAP_MAX_PATTERNS", HOST_BUDGET);
+    private static final int MIN_OUTLINKS_TO_JUDGE = 20;
+    private static final double SELF_SIMILAR_SHARE = 0.8;
+    private static final int LONG_TOKEN = 16; // tokens this long with a digit in them are ids or hashes
+
+    private final ConcurrentHashMap<String, HostState> hosts = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> rejected = new ConcurrentHashMap<>();
+
+    private static class HostState {
+        int queued = 0;
+        final Map<String, Integer> patternCounts = new HashMap<>();
+        final Set<String> suspectPatterns = new HashSet<>();
+    }
+
+    // True if url may be queued. Counts it against its host and pattern, so call it once per new URL.
+    public boolean admit(String url) {
+        URI uri;
+        try {
+            uri = URI.create(url);
+        } catch (IllegalArgumentException e) {
+            return true; // the fetch will fail on its own
+        }
+        String host = uri.getHost() == null ? "" : uri.getHost();
+        List<String> segments = segmentsOf(uri.getRawPath());
+
+        if (segments.size() > MAX_DEPTH || queryParamCount(uri.getRawQuery()) > MAX_QUERY_PARAMS) {
+            return reject("depth");
+        }
+        if (hasRepeatedSegments(segments)) {
+            return reject("repeated segments");
+        }
+
+        String pattern = patternOf(segments, uri.getRawQuery());
+        HostState state = hosts.computeIfAbsent(host, h -> new HostState());
+        synchronized (state) {
+            if (state.queued >= HOST_BUDGET) {
+                return reject("host budget");
+            }
+            Integer count = state.patternCounts.get(pattern);
+            if (count == null && state.patternCounts.size() >= MAX_PATTERNS_PER_HOST) {
+                return reject("pattern cardinality");
+            }
+            int limit = state.suspectPatterns.contains(pattern) ? SUSPECT_PATTERN_LIMIT : PATTERN_LIMIT;
+            if (count != null && count >= limit) {
+                return reject(limit == SUSPECT_PATTERN_LIMIT ? "self-similar pattern" : "pattern limit");
+            }
+            state.patternCounts.put(pattern, count == null ? 1 : count + 1);
+            state.queued++;
+        }
+        return true;
+    }
+
+    // Flags the page's pattern when most of its outlinks are unseen URLs of that same pattern
+    public void inspectOutlinks(String pageUrl, List<String> outlinks, Frontier frontier) {
+        if (outlinks.size() < MIN_OUTLINKS_TO_JUDGE) return;
+        String pattern = patternOf(pageUrl);
+        if (pattern == null) return;
+
+        String host = Frontier.hostOf(pageUrl);
+        int selfSimilar = 0;
+        for (String link : outlinks) {
+            if (host.equals(Frontier.hostOf(link)) && pattern.equals(patternOf(link)) && !frontier.hasSeen(link)) {
+                selfSimilar++;
+            }
+        }
+        if (selfSimilar < outlinks.size() * SELF_SIMILAR_SHARE) return;
+
+        HostState state = hosts.computeIfAbsent(host, h -> new HostState());
+        synchronized (state) {
+            if (state.suspectPatterns.add(pattern)) {
+                System.out.println("Possible crawler trap on " + host + ": " + pattern);
+            }
+        }
+    }
+
+    public String stats() {
+        StringBuilder sb = new StringBuilder("traps: " + hosts.size() + " hosts tracked, rejected");
+        if (rejected.isEmpty()) sb.append(" nothing");
+        rejected.forEach((reason, count) -> sb.append(' ').append(reason).append('=').append(count.get()));
+        return sb.toString();
+    }
+
+    private boolean reject(String reason) {
+        rejected.computeIfAbsent(reason, r -> new AtomicLong()).incrementAndGet();
+        return false;
+    }
+
+    private static String patternOf(String url) {
+        try {
+            URI uri = URI.create(url);
+            return patternOf(segmentsOf(uri.getRawPath()), uri.getRawQuery());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Path with digit runs as '#' and long ids as '*', followed by the sorted parameter names:
+    // /events/2024/05/12?view=day&page=3 -> /events/#/#/#?page&view
+    static String patternOf(List<String> segments, String query) {
+        StringBuilder pattern = new StringBuilder();
+        for (String segment : segments) {
+            pattern.append('/').append(tokenPattern(segment));
+        }
+        if (query != null && !query.isEmpty()) {
+            List<String> names = new ArrayList<>();
+            for (String param : query.split("&")) {
+                int eq = param.indexOf('=');
+                names.add(eq >= 0 ? param.substring(0, eq) : param);
+            }
+            Collections.sort(names);
+            pattern.append('?').append(String.join("&", names));
+        }
+        return pattern.toString();
+    }
+
+    private static String tokenPattern(String segment) {
+        boolean hasDigit = false;
+        for (int i = 0; i < segment.length(); i++) {
+            if (Character.isDigit(segment.charAt(i))) {
+                hasDigit = true;
+                break;
+            }
+        }
+        if (!hasDigit) return segment;
+        if (segment.length() >= LONG_TOKEN) return "*";
+
+        StringBuilder sb = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (Character.isDigit(c)) {
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) != '#') sb.append('#');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean hasRepeatedSegments(List<String> segments) {
+        if (segments.size() <= MAX_SEGMENT_REPEATS) return false;
+        Map<String, Integer> counts = new HashMap<>();
+        for (String segment : segments) {
+            if (counts.merge(segment.toLowerCase(), 1, Integer::sum) > MAX_SEGMENT_REPEATS) return true;
+        }
+        return false;
+    }
+
+    private static List<String> segmentsOf(String path) {
+        List<String> segments = new ArrayList<>();
+        if (path == null) return segments;
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) segments.add(segment);
+        }
+        return segments;
+    }
+
+    private static int queryParamCount(String query) {
+        if (query == null || query.isEmpty()) return 0;
+        int count = 1;
+        for (int i = 0; i < query.length(); i++) {
+            if (query.charAt(i) == '&') count++;
+        }
+        return count;
+    }
+}
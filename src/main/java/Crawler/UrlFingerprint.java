@@ -0,0 +1,30 @@
+package Crawler;
+
+// 64-bit URL fingerprints: FNV-1a over the chars followed by the murmur3 finalizer
+public final class UrlFingerprint {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private UrlFingerprint() { }
+
+    public static long of(CharSequence url) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < url.length(); i++) {
+            char c = url.charAt(i);
+            hash ^= c & 0xff;
+            hash *= FNV_PRIME;
+            hash ^= c >>> 8;
+            hash *= FNV_PRIME;
+        }
+        return mix(hash);
+    }
+
+    public static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,468 @@
+package Crawler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Canonicalizes crawled links in one pass over the characters of the URL.
+// Relative references are resolved against the page URL as in RFC 3986 section 5.2, dot segments
+// are removed, percent-encoding is normalized (hex upper-cased, unreserved characters decoded,
+// characters that are illegal in a URL encoded), host and scheme are lower-cased, default ports,
+// user info and the fragment are dropped and query parameters listed in exclude_params.txt are removed.
+// The crawl policy of the old normalizeUrl is kept: only http(s), no binary/static file
+// extensions, the first path segment must be an English section ("en...") and query parameters
+// need a '='. An empty path is kept as is so URLs already stored keep the same key.
+// Results for absolute URLs are kept in a bounded, striped LRU cache.
+public class UrlNormalizer {
+    private static final String[] SKIPPED_EXTENSIONS = {
+            ".pdf", ".jpg", ".jpeg", ".png", ".gif", ".css", ".js", ".zip", ".mp4", ".mp3"
+    };
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final String REJECTED = new String("rejected"); // cached "normalizes to null", compared by identity
+    private static final int CACHE_STRIPES = 16;
+
+    private final Set<String> excludedParams;
+    private final Stripe[] cache;
+
+    // write buffer reused by each thread, grown on demand
+    private static final ThreadLocal<char[]> BUFFER = ThreadLocal.withInitial(() -> new char[512]);
+
+    public UrlNormalizer(Set<String> excludedParams, int cacheCapacity) {
+        this.excludedParams = excludedParams;
+        if (cacheCapacity > 0) {
+            cache = new Stripe[CACHE_STRIPES];
+            for (int i = 0; i < CACHE_STRIPES; i++) {
+                cache[i] = new Stripe(Math.max(1, cacheCapacity / CACHE_STRIPES));
+            }
+        } else {
+            cache = null;
+        }
+    }
+
+    // Returns the canonical form of url, resolved against baseUrl if it is relative, or null if
+    // the URL is unusable or must not be crawled
+    public String normalize(String url, String baseUrl) {
+        if (url == null) return null;
+        String ref = url.trim();
+        if (ref.isEmpty() || ref.charAt(0) == '#') return null; // same-page anchor
+
+        Ref r = Ref.parse(ref);
+        // the result of an absolute URL does not depend on the page it was found on
+        boolean cacheable = cache != null && r.schemeEnd > 0;
+        if (cacheable) {
+            String cached = stripeFor(ref).get(ref);
+            if (cached != null) return cached == REJECTED ? null : cached;
+        }
+
+        String result = canonicalize(ref, r, baseUrl);
+
+        if (cacheable) {
+            stripeFor(ref).put(ref, result == null ? REJECTED : result);
+        }
+        return result;
+    }
+
+    private String canonicalize(String ref, Ref r, String baseUrl) {
+        // the target of the reference, either the reference itself or the base for missing parts
+        String schemeSrc = ref;
+        Ref schemeRef = r;
+        String authSrc = ref;
+        Ref authRef = r;
+
+        if (r.schemeEnd < 0) {
+            if (baseUrl == null || baseUrl.isEmpty()) {
+                if (r.authStart < 0) return null;
+                schemeSrc = null; // "//host/path" without a page, assume http
+            } else {
+                Ref b = Ref.parse(baseUrl);
+                if (b.schemeEnd < 0 || b.authStart < 0) return null;
+                schemeSrc = baseUrl;
+                schemeRef = b;
+                if (r.authStart < 0) {
+                    authSrc = baseUrl;
+                    authRef = b;
+                }
+            }
+        }
+
+        // scheme
+        String scheme;
+        if (schemeSrc == null) {
+            scheme = "http";
+        } else if (regionIs(schemeSrc, 0, schemeRef.schemeEnd, "http")) {
+            scheme = "http";
+        } else if (regionIs(schemeSrc, 0, schemeRef.schemeEnd, "https")) {
+            scheme = "https";
+        } else {
+            return null; // mailto:, javascript:, ftp: ...
+        }
+        if (authRef.authStart < 0) return null;
+
+        char[] buf = buffer(ref.length() + (baseUrl == null ? 0 : baseUrl.length()));
+        int n = 0;
+        for (int i = 0; i < scheme.length(); i++) buf[n++] = scheme.charAt(i);
+        buf[n++] = ':';
+        buf[n++] = '/';
+        buf[n++] = '/';
+
+        n = writeAuthority(authSrc, authRef.authStart, authRef.authEnd, scheme, buf, n);
+        if (n < 0) return null;
+
+        // path and query, RFC 3986 5.2.2
+        int pathStart = n;
+        String querySrc = ref;
+        Ref queryRef = r;
+        if (authSrc == ref) {
+            n = writeEncoded(ref, r.pathStart, r.pathEnd, buf, n, false);
+        } else {
+            Ref b = authRef;
+            if (r.pathEnd == r.pathStart) {
+                n = writeEncoded(baseUrl, b.pathStart, b.pathEnd, buf, n, false);
+                if (r.queryStart < 0) {
+                    querySrc = baseUrl;
+                    queryRef = b;
+                }
+            } else if (ref.charAt(r.pathStart) == '/') {
+                n = writeEncoded(ref, r.pathStart, r.pathEnd, buf, n, false);
+            } else {
+                // merge: directory of the base path followed by the reference path
+                if (b.pathEnd == b.pathStart) {
+                    buf[n++] = '/';
+                } else {
+                    int lastSlash = baseUrl.lastIndexOf('/', b.pathEnd - 1);
+                    if (lastSlash >= b.pathStart) {
+                        n = writeEncoded(baseUrl, b.pathStart, lastSlash + 1, buf, n, false);
+                    }
+                }
+                n = writeEncoded(ref, r.pathStart, r.pathEnd, buf, n, false);
+            }
+        }
+        n = pathStart + removeDotSegments(buf, pathStart, n);
+
+        if (!isEnglishSection(buf, pathStart, n) || hasSkippedExtension(buf, pathStart, n)) {
+            return null;
+        }
+
+        if (queryRef.queryStart >= 0) {
+            n = writeQuery(querySrc, queryRef.queryStart, queryRef.queryEnd, buf, n);
+        }
+        return new String(buf, 0, n);
+    }
+
+    // Component boundaries of a URI reference (RFC 3986 appendix B), -1 for a missing component
+    private static final class Ref {
+        int schemeEnd = -1;           // index of ':' after the scheme
+        int authStart = -1, authEnd = -1;
+        int pathStart, pathEnd;
+        int queryStart = -1, queryEnd = -1;
+
+        static Ref parse(String s) {
+            Ref r = new Ref();
+            int len = s.length();
+            int i = 0;
+
+            // scheme = ALPHA *( ALPHA / DIGIT / "+" / "-" / "." ) ":"
+            if (len > 0 && isAlpha(s.charAt(0))) {
+                int j = 1;
+                while (j < len) {
+                    char c = s.charAt(j);
+                    if (isAlpha(c) || isDigit(c) || c == '+' || c == '-' || c == '.') j++;
+                    else break;
+                }
+                if (j < len && s.charAt(j) == ':') {
+                    r.schemeEnd = j;
+                    i = j + 1;
+                }
+            }
+
+            if (i + 1 < len && s.charAt(i) == '/' && s.charAt(i + 1) == '/') {
+                r.authStart = i + 2;
+                int j = r.authStart;
+                while (j < len) {
+                    char c = s.charAt(j);
+                    if (c == '/' || c == '?' || c == '#') break;
+                    j++;
+                }
+                r.authEnd = j;
+                i = j;
+            }
+
+            r.pathStart = i;
+            while (i < len) {
+                char c = s.charAt(i);
+                if (c == '?' || c == '#') break;
+                i++;
+            }
+            r.pathEnd = i;
+
+            if (i < len && s.charAt(i) == '?') {
+                int j = i + 1;
+                while (j < len && s.charAt(j) == '?') j++; // "a??b=c" is read as "a?b=c"
+                r.queryStart = j;
+                while (i < len && s.charAt(i) != '#') i++;
+                r.queryEnd = i;
+            }
+            return r;
+        }
+    }
+
+    // Writes lower-cased host and non-default port, drops user info. Returns -1 for a bad authority.
+    private static int writeAuthority(String s, int start, int end, String scheme, char[] buf, int n) {
+        int at = s.lastIndexOf('@', end - 1);
+        if (at >= start) start = at + 1;
+
+        int hostEnd = end;
+        int portStart = -1;
+        if (start < end && s.charAt(start) == '[') {
+            // IPv6 literal
+            int close = s.indexOf(']', start);
+            if (close < 0 || close >= end) return -1;
+            hostEnd = close + 1;
+            if (hostEnd < end) {
+                if (s.charAt(hostEnd) != ':') return -1;
+                portStart = hostEnd + 1;
+            }
+        } else {
+            int colon = s.lastIndexOf(':', end - 1);
+            if (colon >= start) {
+                hostEnd = colon;
+                portStart = colon + 1;
+            }
+        }
+        if (hostEnd == start) return -1;
+
+        boolean ipv6 = s.charAt(start) == '[';
+        for (int i = start; i < hostEnd; i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c = (char) (c + ('a' - 'A'));
+            } else if (!(isAlpha(c) || isDigit(c) || c == '-' || c == '.'
+                    || (ipv6 && (c == '[' || c == ']' || c == ':')))) {
+                return -1;
+            }
+            buf[n++] = c;
+        }
+
+        if (portStart >= 0 && portStart < end) {
+            if (end - portStart > 5) return -1;
+            int port = 0;
+            for (int i = portStart; i < end; i++) {
+                char c = s.charAt(i);
+                if (!isDigit(c)) return -1;
+                port = port * 10 + (c - '0');
+            }
+            if (port > 65535) return -1;
+            boolean defaultPort = (port == 80 && scheme.equals("http")) || (port == 443 && scheme.equals("https"));
+            if (!defaultPort) {
+                buf[n++] = ':';
+                for (int i = portStart; i < end; i++) buf[n++] = s.charAt(i);
+            }
+        }
+        return n;
+    }
+
+    // Copies s[start, end) normalizing percent-encoding
+    private static int writeEncoded(String s, int start, int end, char[] buf, int n, boolean inQuery) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '%' && i + 2 < end && isHex(s.charAt(i + 1)) && isHex(s.charAt(i + 2))) {
+                int value = hexValue(s.charAt(i + 1)) * 16 + hexValue(s.charAt(i + 2));
+                if (isUnreserved((char) value)) {
+                    buf[n++] = (char) value;
+                } else {
+                    buf[n++] = '%';
+                    buf[n++] = HEX[value >> 4];
+                    buf[n++] = HEX[value & 0xF];
+                }
+                i += 2;
+            } else if (c >= 0x80 || isUnreserved(c) || isSubDelim(c) || c == ':' || c == '@' || c == '/'
+                    || (inQuery && c == '?')) {
+                buf[n++] = c;
+            } else {
+                // space, quotes, brackets, a stray '%' ...
+                buf[n++] = '%';
+                buf[n++] = HEX[(c >> 4) & 0xF];
+                buf[n++] = HEX[c & 0xF];
+            }
+        }
+        return n;
+    }
+
+    // Writes "?query" keeping only parameters of the form key=value whose key isn't excluded
+    private int writeQuery(String s, int start, int end, char[] buf, int n) {
+        int queryMark = n;
+        buf[n++] = '?';
+        boolean first = true;
+        int i = start;
+        while (i < end) {
+            int paramEnd = s.indexOf('&', i);
+            if (paramEnd < 0 || paramEnd > end) paramEnd = end;
+            int eq = s.indexOf('=', i);
+            if (eq > i && eq < paramEnd && !isExcluded(s, i, eq)) {
+                if (!first) buf[n++] = '&';
+                n = writeEncoded(s, i, paramEnd, buf, n, true);
+                first = false;
+            }
+            i = paramEnd + 1;
+        }
+        return first ? queryMark : n;
+    }
+
+    private boolean isExcluded(String s, int start, int end) {
+        if (excludedParams.isEmpty()) return false;
+        return excludedParams.contains(s.substring(start, end).toLowerCase());
+    }
+
+    // RFC 3986 5.2.4 on buf[start, end), in place. Returns the new length of the path.
+    static int removeDotSegments(char[] buf, int start, int end) {
+        int in = start;
+        int out = start;
+        while (in < end) {
+            if (startsWith(buf, in, end, "../")) {
+                in += 3;
+            } else if (startsWith(buf, in, end, "./") || startsWith(buf, in, end, "/./")) {
+                in += 2;
+            } else if (in + 2 == end && startsWith(buf, in, end, "/.")) {
+                buf[out++] = '/';
+                break;
+            } else if (startsWith(buf, in, end, "/../")) {
+                in += 3;
+                out = popSegment(buf, start, out);
+            } else if (in + 3 == end && startsWith(buf, in, end, "/..")) {
+                out = popSegment(buf, start, out);
+                buf[out++] = '/';
+                break;
+            } else if ((in + 1 == end && buf[in] == '.') || (in + 2 == end && buf[in] == '.' && buf[in + 1] == '.')) {
+                break;
+            } else {
+                // move the first segment, including its leading '/', to the output
+                if (buf[in] == '/') buf[out++] = buf[in++];
+                while (in < end && buf[in] != '/') buf[out++] = buf[in++];
+            }
+        }
+        return out - start;
+    }
+
+    private static int popSegment(char[] buf, int start, int out) {
+        while (out > start && buf[out - 1] != '/') out--;
+        if (out > start) out--;
+        return out;
+    }
+
+    // The first path segment must name an English section, same rule as the old normalizer
+    private static boolean isEnglishSection(char[] buf, int start, int end) {
+        if (end - start <= 1) return true; // "" or "/"
+        int i = start + 1;
+        return i + 1 < end && (buf[i] == 'e' || buf[i] == 'E') && (buf[i + 1] == 'n' || buf[i + 1] == 'N');
+    }
+
+    private static boolean hasSkippedExtension(char[] buf, int start, int end) {
+        for (String ext : SKIPPED_EXTENSIONS) {
+            int len = ext.length();
+            if (end - start < len) continue;
+            boolean match = true;
+            for (int i = 0; i < len && match; i++) {
+                char c = buf[end - len + i];
+                if (c >= 'A' && c <= 'Z') c = (char) (c + ('a' - 'A'));
+                match = c == ext.charAt(i);
+            }
+            if (match) return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(char[] buf, int at, int end, String prefix) {
+        if (end - at < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buf[at + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean regionIs(String s, int start, int end, String lowerCase) {
+        if (end - start != lowerCase.length()) return false;
+        for (int i = 0; i < lowerCase.length(); i++) {
+            char c = s.charAt(start + i);
+            if (c >= 'A' && c <= 'Z') c = (char) (c + ('a' - 'A'));
+            if (c != lowerCase.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static char[] buffer(int inputLength) {
+        // percent-encoding triples a character at most, plus the separators
+        int needed = inputLength * 3 + 16;
+        char[] buf = BUFFER.get();
+        if (buf.length < needed) {
+            buf = new char[Math.max(needed, buf.length * 2)];
+            BUFFER.set(buf);
+        }
+        return buf;
+    }
+
+    private static boolean isAlpha(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHex(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    private static int hexValue(char c) {
+        if (c <= '9') return c - '0';
+        if (c <= 'F') return c - 'A' + 10;
+        return c - 'a' + 10;
+    }
+
+    private static boolean isUnreserved(char c) {
+        return isAlpha(c) || isDigit(c) || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static boolean isSubDelim(char c) {
+        return c == '!' || c == '$' || c == '&' || c == '\'' || c == '(' || c == ')'
+                || c == '*' || c == '+' || c == ',' || c == ';' || c == '=';
+    }
+
+    private Stripe stripeFor(String key) {
+        int h = key.hashCode();
+        return cache[(h ^ (h >>> 16)) & (CACHE_STRIPES - 1)];
+    }
+
+    // One LRU segment of the cache, a small lock per stripe keeps contention low
+    private static final class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final LinkedHashMap<String, String> map;
+
+        Stripe(int capacity) {
+            this.map = new LinkedHashMap<>(Math.min(capacity, 1024), 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+
+        String get(String key) {
+            lock.lock();
+            try {
+                return map.get(key);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void put(String key, String value) {
+            lock.lock();
+            try {
+                map.put(key, value);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package Crawler;
+
+import java.util.Collection;
+
+// Set of URLs the crawler has already queued, shared by the frontier and every worker
+public interface VisitedSet {
+    // Returns true if the URL was not in the set before
+    boolean add(String url);
+
+    boolean contains(String url);
+
+    // Number of URLs added (approximate for probabilistic sets)
+    long size();
+
+    // Approximate heap used by the set
+    long memoryBytes();
+
+    // URLs to store with the crawler state in Mongo, empty for sets that persist themselves
+    Collection<String> urls();
+
+    // Writes any file backed state, called on every checkpoint
+    void save();
+
+    // One line summary for the crawler stats log
+    String stats();
+
+    static VisitedSet create() {
+        return create("");
+    }
+
+    // stateSuffix keeps the bloom files of several shards on one machine apart
+    static VisitedSet create(String stateSuffix) {
+        String type = CrawlerConfig.get("CRAWLER_VISITED_SET", "exact");
+        if (type.equalsIgnoreCase("bloom")) {
+            String file = CrawlerConfig.get("CRAWLER_BLOOM_FILE", "crawler_visited.bloom");
+            int dot = file.lastIndexOf('.');
+            file = dot > 0 ? file.substring(0, dot) + stateSuffix + file.substring(dot) : file + stateSuffix;
+            return BloomVisitedSet.openOrCreate(
+                    file,
+                    CrawlerConfig.getInt("CRAWLER_BLOOM_CAPACITY", 1_000_000),
+                    Double.parseDouble(CrawlerConfig.get("CRAWLER_BLOOM_FPP", "0.001")));
+        }
+        return new ExactVisitedSet();
+    }
+}
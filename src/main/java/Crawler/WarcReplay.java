@@ -0,0 +1,113 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+
+// Serves fetches from the WARC files written by WarcWriter instead of the network.
+// The .idx files are loaded up front into url -> (file, offset); when a URL was archived more
+// than once the newest record wins. A URL that is not in the archive fails with NotArchivedException,
+// which says nothing about its host, so the fetch engines don't count it against the host's health.
+public class WarcReplay {
+    private final Map<String, Location> locations = new HashMap<>();
+
+    public static class NotArchivedException extends IOException {
+        NotArchivedException(String url) {
+            super("not in the archive: " + url);
+        }
+    }
+
+    private static class Location {
+        final Path file;
+        final long offset;
+
+        Location(Path file, long offset) {
+            this.file = file;
+            this.offset = offset;
+        }
+    }
+
+    public WarcReplay(Path dir) throws IOException {
+        List<Path> indexes = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.warc.gz" + WarcWriter.INDEX_SUFFIX)) {
+            files.forEach(indexes::add);
+        }
+        Collections.sort(indexes); // file names start with the creation time, so later records override
+        for (Path index : indexes) {
+            String name = index.getFileName().toString();
+            Path warc = index.resolveSibling(name.substring(0, name.length() - WarcWriter.INDEX_SUFFIX.length()));
+            try (BufferedReader reader = Files.newBufferedReader(index, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    int tab = line.indexOf('\t');
+                    if (tab <= 0) continue;
+                    locations.put(line.substring(tab + 1), new Location(warc, Long.parseLong(line.substring(0, tab))));
+                }
+            }
+        }
+        System.out.println("Replaying " + locations.size() + " archived responses from " + dir);
+    }
+
+    public FetchedPage fetch(String url) throws IOException {
+        Location location = locations.get(url);
+        if (location == null) {
+            throw new NotArchivedException(url);
+        }
+        try (FileChannel channel = FileChannel.open(location.file, StandardOpenOption.READ)) {
+            channel.position(location.offset);
+            InputStream in = new BufferedInputStream(new GZIPInputStream(Channels.newInputStream(channel), 1 << 16));
+            return readResponse(url, in);
+        }
+    }
+
+    private static FetchedPage readResponse(String url, InputStream in) throws IOException {
+        Map<String, String> warcHeaders = readHeaders(in);
+        long length = Long.parseLong(warcHeaders.getOrDefault("content-length", "0"));
+        byte[] block = in.readNBytes((int) length);
+
+        InputStream http = new ByteArrayInputStream(block);
+        String statusLine = readLine(http);
+        String[] status = statusLine.split(" ");
+        if (status.length < 2) {
+            throw new IOException("bad archived status line: " + statusLine);
+        }
+        Map<String, String> headers = readHeaders(http);
+        byte[] body = http.readAllBytes();
+
+        String finalUrl = warcHeaders.getOrDefault(WarcWriter.FINAL_URI_HEADER.toLowerCase(), url);
+        String abortReason = warcHeaders.get(WarcWriter.ABORT_HEADER.toLowerCase());
+        String text = abortReason != null ? "" : PageSniffer.decode(body, body.length, headers);
+        return new FetchedPage(url, finalUrl, Integer.parseInt(status[1]), headers, text, abortReason);
+    }
+
+    // Header lines up to the blank line, names lower-cased like FetchedPage.flattenHeaders
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) continue; // WARC version line
+            headers.putIfAbsent(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            throw new EOFException("truncated WARC record");
+        }
+        return line.toString(StandardCharsets.UTF_8);
+    }
+}
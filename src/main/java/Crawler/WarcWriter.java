@@ -0,0 +1,148 @@
+package Crawler;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+// Archives every HTTP response the crawler receives as WARC 1.1 "response" records.
+// Each record is its own gzip member, the usual .warc.gz layout, so a record can be read from
+// its offset without decompressing the file before it. Files roll over at maxFileBytes.
+// Next to each file an .idx file lists "offset<TAB>url" per record, which WarcReplay loads.
+// Fetches that were stopped early are archived with their headers, an empty body and a
+// Falcony-Abort-Reason header, so a replay takes the same decisions as the live crawl.
+public class WarcWriter implements Closeable {
+    static final String FINAL_URI_HEADER = "Falcony-Final-URI";
+    static final String ABORT_HEADER = "Falcony-Abort-Reason";
+    static final String INDEX_SUFFIX = ".idx";
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").withZone(ZoneOffset.UTC);
+
+    private final Path dir;
+    private final String prefix;
+    private final long maxFileBytes;
+
+    private OutputStream out;
+    private BufferedWriter index;
+    private long offset;
+    private int fileSeq = 0;
+    private long records = 0;
+
+    public WarcWriter(Path dir, String prefix, long maxFileBytes) throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.maxFileBytes = maxFileBytes;
+        Files.createDirectories(dir);
+    }
+
+    // rawBody is the body as received, before charset decoding
+    public void writeResponse(FetchedPage page, byte[] rawBody) {
+        ByteArrayOutputStream block = new ByteArrayOutputStream(rawBody.length + 512);
+        StringBuilder http = new StringBuilder("HTTP/1.1 ").append(page.getStatusCode()).append("\r\n");
+        for (Map.Entry<String, String> header : page.getHeaders().entrySet()) {
+            String name = header.getKey();
+            // the archived body is already de-chunked and may be cut at the size limit
+            if (name.equals("content-length") || name.equals("transfer-encoding")) continue;
+            http.append(name).append(": ").append(header.getValue()).append("\r\n");
+        }
+        http.append("content-length: ").append(rawBody.length).append("\r\n\r\n");
+        block.writeBytes(http.toString().getBytes(StandardCharsets.ISO_8859_1));
+        block.writeBytes(rawBody);
+
+        StringBuilder warc = new StringBuilder("WARC/1.1\r\n")
+                .append("WARC-Type: response\r\n")
+                .append("WARC-Record-ID: <urn:uuid:").append(UUID.randomUUID()).append(">\r\n")
+                .append("WARC-Date: ").append(Instant.now().truncatedTo(ChronoUnit.SECONDS)).append("\r\n")
+                .append("WARC-Target-URI: ").append(page.getUrl()).append("\r\n");
+        if (!page.getFinalUrl().equals(page.getUrl())) {
+            warc.append(FINAL_URI_HEADER).append(": ").append(page.getFinalUrl()).append("\r\n");
+        }
+        if (page.isAborted()) {
+            warc.append(ABORT_HEADER).append(": ").append(page.getAbortReason()).append("\r\n");
+        }
+        warc.append("Content-Type: application/http; msgtype=response\r\n")
+                .append("Content-Length: ").append(block.size()).append("\r\n\r\n");
+
+        byte[] record = gzip(warc.toString(), block.toByteArray());
+        append(page.getUrl(), record);
+    }
+
+    private synchronized void append(String url, byte[] record) {
+        try {
+            if (out == null || offset >= maxFileBytes) {
+                roll();
+            }
+            out.write(record);
+            out.flush(); // the index must never point past the data on disk
+            index.write(offset + "\t" + url);
+            index.newLine();
+            index.flush();
+            offset += record.length;
+            records++;
+        } catch (IOException e) {
+            System.err.println("Failed to archive " + url + ": " + e.getMessage());
+        }
+    }
+
+    private void roll() throws IOException {
+        closeFiles();
+        String name = prefix + "-" + FILE_TIME.format(Instant.now()) + "-" + (fileSeq++) + ".warc.gz";
+        Path file = dir.resolve(name);
+        out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        index = Files.newBufferedWriter(dir.resolve(name + INDEX_SUFFIX), StandardCharsets.UTF_8);
+        offset = 0;
+
+        String info = "software: " + CrawlerHttpClient.USER_AGENT + "\r\nformat: WARC File Format 1.1\r\n";
+        String header = "WARC/1.1\r\n"
+                + "WARC-Type: warcinfo\r\n"
+                + "WARC-Record-ID: <urn:uuid:" + UUID.randomUUID() + ">\r\n"
+                + "WARC-Date: " + Instant.now().truncatedTo(ChronoUnit.SECONDS) + "\r\n"
+                + "WARC-Filename: " + name + "\r\n"
+                + "Content-Type: application/warc-fields\r\n"
+                + "Content-Length: " + info.length() + "\r\n\r\n";
+        byte[] record = gzip(header, info.getBytes(StandardCharsets.ISO_8859_1));
+        out.write(record);
+        offset += record.length;
+        System.out.println("Archiving responses to " + file);
+    }
+
+    private static byte[] gzip(String headers, byte[] block) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(block.length / 3 + 256);
+        try (GZIPOutputStream gz = new GZIPOutputStream(bytes)) {
+            gz.write(headers.getBytes(StandardCharsets.UTF_8));
+            gz.write(block);
+            gz.write("\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // in-memory stream
+        }
+        return bytes.toByteArray();
+    }
+
+    public synchronized long getRecordCount() {
+        return records;
+    }
+
+    private void closeFiles() throws IOException {
+        if (out != null) {
+            out.close();
+            index.close();
+            out = null;
+            index = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            closeFiles();
+        } catch (IOException e) {
+            System.err.println("Failed to close WARC file: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Indexer;
+
+import Utils.Analysis;
+import Utils.WebDocument;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns a document into per-term field frequencies in one pass over its fields.
+// Every stemmed token of the title, the h1s, the h2s and the body bumps one counter of its term,
+// so the heading frequencies no longer need a scan of the heading tokens per body term.
+// The result is what indexDocument used to build: only terms that occur in the body get a
+// posting, with their title, h1 and h2 counts and a body count that excludes the h1/h2 occurrences.
+public class DocumentAnalyzer {
+    private static final int TITLE = 0, H1 = 1, H2 = 2, BODY = 3;
+
+    private final Analysis analysis;
+
+    public DocumentAnalyzer(Analysis analysis) {
+        this.analysis = analysis;
+    }
+
+    // term -> {"title", "h1", "h2", "body"} frequencies
+    public Map<String, Map<String, Integer>> analyze(WebDocument document) {
+        Map<String, int[]> counts = new HashMap<>();
+        addField(counts, document.getTitle(), TITLE);
+        addFields(counts, document.getH1s(), H1);
+        addFields(counts, document.getH2s(), H2);
+        addField(counts, document.getSoupedContent(), BODY);
+
+        Map<String, Map<String, Integer>> freqs = new HashMap<>();
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            int[] count = entry.getValue();
+            if (count[BODY] == 0) continue;
+            Map<String, Integer> postingFreqs = new HashMap<>();
+            postingFreqs.put("title", count[TITLE]);
+            postingFreqs.put("h1", count[H1]);
+            postingFreqs.put("h2", count[H2]);
+            postingFreqs.put("body", count[BODY] - count[H1] - count[H2]);
+            freqs.put(entry.getKey(), postingFreqs);
+        }
+        return freqs;
+    }
+
+    private void addFields(Map<String, int[]> counts, List<String> texts, int field) {
+        for (String text : texts) {
+            addField(counts, text, field);
+        }
+    }
+
+    private void addField(Map<String, int[]> counts, String text, int field) {
+        if (text == null || text.isEmpty()) return;
+        for (String token : analysis.tokenize(text)) {
+            String term = analysis.term(token);
+            if (term != null) {
+                counts.computeIfAbsent(term, k -> new int[4])[field]++;
+            }
+        }
+    }
+}
@@ -0,0 +1,382 @@
+package Indexer;
+
+import Utils.Posting;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One immutable index segment, written once by an indexing batch or a merge and never changed.
+//   <name>.dic  sorted term dictionary: term, postings offset, document frequency
+//   <name>.pst  postings: per term, (doc ordinal delta, title, h1, h2, body) as variable-length ints
+//   <name>.doc  doc stats: per ordinal the docId, its number of terms and its number of tokens
+// Doc ordinals follow docId order, so every postings list is sorted and delta-coded.
+// The dictionary and the doc table are held in memory, postings are read from the file on demand.
+// A segment is reference counted: SegmentedIndex and every open snapshot hold a reference, and the
+// file handle is closed (and the files deleted, once merged away) when the last one is released.
+public class IndexSegment {
+    static final String[] FIELDS = {"title", "h1", "h2", "body"};
+    static final String[] EXTENSIONS = {".dic", ".pst", ".doc"};
+    private static final int MAGIC = 0x46414C53; // "FALS"
+    private static final int VERSION = 1;
+
+    private final Path dir;
+    final String name;
+    private final String[] terms;
+    private final long[] offsets; // offsets[i + 1] - offsets[i] is the length of term i's postings
+    private final int[] docFreqs;
+    private final String[] docIds;
+    private final int[] docTerms;
+    private final int[] docTokens;
+    private final Map<String, Integer> ordinals;
+    private final FileChannel postings;
+    private final long sizeInBytes;
+
+    private final AtomicInteger refs = new AtomicInteger(1);
+    private volatile boolean deleteOnClose = false;
+
+    // Postings of one term in ordinal order, freqs holds the FIELDS counts of entry i at i * 4
+    static class PostingList {
+        final int[] ordinals;
+        final int[] freqs;
+
+        PostingList(int[] ordinals, int[] freqs) {
+            this.ordinals = ordinals;
+            this.freqs = freqs;
+        }
+    }
+
+    private IndexSegment(Path dir, String name) throws IOException {
+        this.dir = dir;
+        this.name = name;
+
+        try (DataInputStream in = open(dir.resolve(name + ".dic"))) {
+            int count = readHeader(in);
+            terms = new String[count];
+            offsets = new long[count + 1];
+            docFreqs = new int[count];
+            long offset = 0;
+            for (int i = 0; i < count; i++) {
+                terms[i] = in.readUTF();
+                offset += readVLong(in);
+                offsets[i] = offset;
+                docFreqs[i] = readVInt(in);
+            }
+        }
+
+        try (DataInputStream in = open(dir.resolve(name + ".doc"))) {
+            int count = readHeader(in);
+            docIds = new String[count];
+            docTerms = new int[count];
+            docTokens = new int[count];
+            ordinals = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                docIds[i] = in.readUTF();
+                docTerms[i] = readVInt(in);
+                docTokens[i] = readVInt(in);
+                ordinals.put(docIds[i], i);
+            }
+        }
+
+        Path postingsFile = dir.resolve(name + ".pst");
+        postings = FileChannel.open(postingsFile, StandardOpenOption.READ);
+        offsets[terms.length] = postings.size();
+        sizeInBytes = postings.size() + Files.size(dir.resolve(name + ".dic")) + Files.size(dir.resolve(name + ".doc"));
+    }
+
+    static IndexSegment open(Path dir, String name) throws IOException {
+        return new IndexSegment(dir, name);
+    }
+
+    // Writes a segment for one indexing batch, term -> postings as built by TextIndexer
+    static IndexSegment write(Path dir, String name, Map<String, List<Posting>> index) throws IOException {
+        // doc table first, it fixes the ordinals
+        TreeMap<String, int[]> docStats = new TreeMap<>();
+        for (List<Posting> list : index.values()) {
+            for (Posting posting : list) {
+                int[] stats = docStats.computeIfAbsent(posting.getDocId(), k -> new int[2]);
+                stats[0]++;
+                for (String field : FIELDS) stats[1] += Math.max(0, posting.getFrequency(field));
+            }
+        }
+        Map<String, Integer> ordinals = new HashMap<>(docStats.size() * 2);
+        for (String docId : docStats.keySet()) {
+            ordinals.put(docId, ordinals.size());
+        }
+
+        try (Writer writer = new Writer(dir, name)) {
+            writer.writeDocs(docStats);
+            for (String term : new TreeSet<>(index.keySet())) {
+                // a document indexed twice in a batch keeps its last posting
+                TreeMap<Integer, Posting> byOrdinal = new TreeMap<>();
+                for (Posting posting : index.get(term)) {
+                    byOrdinal.put(ordinals.get(posting.getDocId()), posting);
+                }
+                int[] ords = new int[byOrdinal.size()];
+                int[] freqs = new int[byOrdinal.size() * FIELDS.length];
+                int n = 0;
+                for (Map.Entry<Integer, Posting> entry : byOrdinal.entrySet()) {
+                    ords[n] = entry.getKey();
+                    for (int f = 0; f < FIELDS.length; f++) {
+                        freqs[n * FIELDS.length + f] = entry.getValue().getFrequency(FIELDS[f]);
+                    }
+                    n++;
+                }
+                writer.addTerm(term, new PostingList(ords, freqs));
+            }
+        }
+        return open(dir, name);
+    }
+
+    // Streams a segment out in the order the files need it: the doc table, then terms in sorted order
+    static class Writer implements Closeable {
+        private final FileOutputStream dicFile, pstFile, docFile;
+        private final DataOutputStream dic, pst, doc;
+        private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(1 << 12);
+        private final DataOutputStream scratchOut = new DataOutputStream(scratch);
+        private final List<String> terms = new ArrayList<>();
+        private final List<Long> offsets = new ArrayList<>();
+        private final List<Integer> docFreqs = new ArrayList<>();
+        private long offset = 0;
+
+        Writer(Path dir, String name) throws IOException {
+            dicFile = new FileOutputStream(dir.resolve(name + ".dic").toFile());
+            pstFile = new FileOutputStream(dir.resolve(name + ".pst").toFile());
+            docFile = new FileOutputStream(dir.resolve(name + ".doc").toFile());
+            dic = new DataOutputStream(new BufferedOutputStream(dicFile, 1 << 16));
+            pst = new DataOutputStream(new BufferedOutputStream(pstFile, 1 << 16));
+            doc = new DataOutputStream(new BufferedOutputStream(docFile, 1 << 16));
+        }
+
+        // docId -> {terms, tokens}, in docId order
+        void writeDocs(SortedMap<String, int[]> docStats) throws IOException {
+            writeHeader(doc, docStats.size());
+            for (Map.Entry<String, int[]> entry : docStats.entrySet()) {
+                doc.writeUTF(entry.getKey());
+                writeVInt(doc, entry.getValue()[0]);
+                writeVInt(doc, entry.getValue()[1]);
+            }
+        }
+
+        void addTerm(String term, PostingList list) throws IOException {
+            scratch.reset();
+            int previous = 0;
+            for (int i = 0; i < list.ordinals.length; i++) {
+                writeVInt(scratchOut, list.ordinals[i] - previous);
+                previous = list.ordinals[i];
+                for (int f = 0; f < FIELDS.length; f++) {
+                    writeVInt(scratchOut, zigZag(list.freqs[i * FIELDS.length + f])); // body may be negative
+                }
+            }
+            scratch.writeTo(pst);
+            terms.add(term);
+            offsets.add(offset);
+            docFreqs.add(list.ordinals.length);
+            offset += scratch.size();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writeHeader(dic, terms.size());
+            long previous = 0;
+            for (int i = 0; i < terms.size(); i++) {
+                dic.writeUTF(terms.get(i));
+                writeVLong(dic, offsets.get(i) - previous);
+                previous = offsets.get(i);
+                writeVInt(dic, docFreqs.get(i));
+            }
+            // on disk before the manifest that lists the segment
+            for (DataOutputStream out : List.of(dic, pst, doc)) out.flush();
+            for (FileOutputStream file : List.of(dicFile, pstFile, docFile)) {
+                file.getChannel().force(true);
+                file.close();
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long sizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public int docCount() {
+        return docIds.length;
+    }
+
+    int termCount() {
+        return terms.length;
+    }
+
+    String term(int index) {
+        return terms[index];
+    }
+
+    String docId(int ordinal) {
+        return docIds[ordinal];
+    }
+
+    // -1 when docId has no postings in this segment
+    int ordinal(String docId) {
+        Integer ordinal = ordinals.get(docId);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    int[] docStats(int ordinal) {
+        return new int[]{docTerms[ordinal], docTokens[ordinal]};
+    }
+
+    // Index of term in the dictionary, -1 if absent
+    int termIndex(String term) {
+        int index = Arrays.binarySearch(terms, term);
+        return index < 0 ? -1 : index;
+    }
+
+    PostingList readPostings(int termIndex) throws IOException {
+        long start = offsets[termIndex];
+        int length = (int) (offsets[termIndex + 1] - start);
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            // positional reads, so concurrent queries share the channel
+            if (postings.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("truncated postings in segment " + name);
+            }
+        }
+        buffer.flip();
+
+        int count = docFreqs[termIndex];
+        int[] ords = new int[count];
+        int[] freqs = new int[count * FIELDS.length];
+        int ordinal = 0;
+        for (int i = 0; i < count; i++) {
+            ordinal += readVInt(buffer);
+            ords[i] = ordinal;
+            for (int f = 0; f < FIELDS.length; f++) {
+                freqs[i * FIELDS.length + f] = unZigZag(readVInt(buffer));
+            }
+        }
+        return new PostingList(ords, freqs);
+    }
+
+    static Posting toPosting(String term, String docId, PostingList list, int i) {
+        Map<String, Integer> freqs = new HashMap<>();
+        for (int f = 0; f < FIELDS.length; f++) {
+            freqs.put(FIELDS[f], list.freqs[i * FIELDS.length + f]);
+        }
+        return new Posting(term, docId, freqs);
+    }
+
+    boolean tryIncRef() {
+        int count;
+        do {
+            count = refs.get();
+            if (count <= 0) return false;
+        } while (!refs.compareAndSet(count, count + 1));
+        return true;
+    }
+
+    void decRef() {
+        if (refs.decrementAndGet() == 0) {
+            try {
+                postings.close();
+            } catch (IOException e) {
+                System.err.println("Failed to close segment " + name + ": " + e.getMessage());
+            }
+            if (deleteOnClose) {
+                deleteFiles(dir, name);
+            }
+        }
+    }
+
+    // Merged away: the files go once no snapshot reads the segment any more
+    void retire(boolean deleteFiles) {
+        deleteOnClose = deleteFiles;
+        decRef();
+    }
+
+    static void deleteFiles(Path dir, String name) {
+        for (String extension : EXTENSIONS) {
+            try {
+                Files.deleteIfExists(dir.resolve(name + extension));
+            } catch (IOException e) {
+                // still open elsewhere on some platforms, the next cleanup retries
+                System.err.println("Failed to delete " + name + extension + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+    }
+
+    private static void writeHeader(DataOutputStream out, int count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(count);
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not an index segment file");
+        }
+        return in.readInt();
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static void writeVLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static int readVInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static long readVLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+
+    private static int readVInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
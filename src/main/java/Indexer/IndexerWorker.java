@@ -1,19 +1,37 @@
 package Indexer;
 
-import Utils.Tokenizer;
 import Utils.WebDocument;
-import opennlp.tools.tokenize.TokenizerME;
 
-public class IndexerWorker implements Runnable {
-    WebDocument document;
-    TokenizerME tokenizer;
-    public IndexerWorker(WebDocument document, Tokenizer tokenizer) {
-        this.document = document;
-        this.tokenizer = tokenizer.getTokenizerME();
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+
+// Indexes documents taken from the batch queue into its own PostingsBuffer until the queue is empty.
+// Taking documents one at a time keeps the threads busy when document sizes vary.
+public class IndexerWorker implements Callable<IndexerWorker> {
+    private final Queue<WebDocument> documents;
+    final PostingsBuffer postings;
+    final List<WebDocument> indexed = new ArrayList<>();
+
+    public IndexerWorker(Queue<WebDocument> documents, int numShards) {
+        this.documents = documents;
+        this.postings = new PostingsBuffer(numShards);
     }
+
     @Override
-    public void run() {
-        System.out.println("indexing document: " + document.getId());
-        TextIndexer.indexDocument(document, tokenizer);
+    public IndexerWorker call() {
+        WebDocument document;
+        while (!Thread.currentThread().isInterrupted() && (document = documents.poll()) != null) {
+            System.out.println("indexing document: " + document.getId());
+            try {
+                TextIndexer.indexDocument(document, postings);
+                indexed.add(document);
+            } catch (RuntimeException e) {
+                // left unindexed, retried in a later batch until it has failed too often
+                System.err.println("Failed to index " + document.getId() + ": " + e.getMessage());
+            }
+        }
+        return this;
     }
 }
@@ -0,0 +1,45 @@
+package Indexer;
+
+import Utils.Posting;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Term -> postings of the documents one indexing thread has processed, owned by that thread alone.
+// Terms are kept in shards by hash, so merging a batch runs one task per shard and no two tasks
+// ever touch the same term.
+class PostingsBuffer {
+    private final List<Map<String, List<Posting>>> shards;
+
+    PostingsBuffer(int numShards) {
+        shards = new ArrayList<>(numShards);
+        for (int i = 0; i < numShards; i++) {
+            shards.add(new HashMap<>());
+        }
+    }
+
+    void add(String term, Posting posting) {
+        shards.get(shardOf(term)).computeIfAbsent(term, k -> new ArrayList<>()).add(posting);
+    }
+
+    private int shardOf(String term) {
+        return Math.floorMod(term.hashCode(), shards.size());
+    }
+
+    // Appends one shard of every buffer to index. A document is indexed by one thread only, so
+    // concatenating the lists never produces two postings of a document for the same term.
+    static void mergeShard(List<PostingsBuffer> buffers, int shard, Map<String, List<Posting>> index) {
+        for (PostingsBuffer buffer : buffers) {
+            for (Map.Entry<String, List<Posting>> entry : buffer.shards.get(shard).entrySet()) {
+                List<Posting> postings = index.get(entry.getKey());
+                if (postings == null) {
+                    index.put(entry.getKey(), entry.getValue());
+                } else {
+                    postings.addAll(entry.getValue());
+                }
+            }
+        }
+    }
+}
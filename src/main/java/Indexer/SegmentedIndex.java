@@ -0,0 +1,451 @@
+package Indexer;
+
+import Utils.Posting;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Inverted index kept as immutable IndexSegment files in INDEX_DIR, in place of the tokens collection.
+// Every indexing batch is flushed as a new segment and the "segments" manifest, replaced atomically,
+// lists the live segments from oldest to newest. A document indexed again (a recrawled page) shadows
+// its postings in all older segments, so readers and merges take a document from the newest segment
+// that has it.
+// A background thread merges segments by size tier: once SEGMENTS_PER_TIER adjacent segments fall
+// in the same tier they are rewritten as one segment of the next tier, so every posting is rewritten
+// about once per tier instead of on every batch. Only adjacent segments are merged, which keeps the
+// newest-wins order intact.
+// The indexer process writes; query processes reload the manifest when it changes on disk.
+public class SegmentedIndex {
+    private static final String MANIFEST = "segments";
+    private static final int SEGMENTS_PER_TIER = 10;
+    private static final long TIER_FLOOR_BYTES = 128L << 10; // segments below 128 KB share the lowest tier
+
+    private static final Map<Path, SegmentedIndex> instances = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final Path manifest;
+    private List<IndexSegment> segments = new ArrayList<>(); // oldest first, guarded by this
+    private long nextGeneration = 0;
+    private FileTime manifestTime;
+    private volatile Snapshot current;
+    private boolean cleanedUp = false;
+
+    private final ExecutorService merger = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // A consistent view of the segments for one query. It holds a reference on each segment, and
+    // is itself held by the index while it is current and by every query using it.
+    public static class Snapshot implements AutoCloseable {
+        final List<IndexSegment> segments; // newest first
+        final List<BitSet> shadowed;       // ordinals with a newer version in a later segment, null if none
+        private final AtomicInteger users = new AtomicInteger(1);
+
+        Snapshot(List<IndexSegment> oldestFirst) {
+            segments = new ArrayList<>(oldestFirst);
+            Collections.reverse(segments);
+            shadowed = shadowedDocs(segments);
+        }
+
+        boolean tryUse() {
+            int count;
+            do {
+                count = users.get();
+                if (count <= 0) return false;
+            } while (!users.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        @Override
+        public void close() {
+            if (users.decrementAndGet() == 0) {
+                segments.forEach(IndexSegment::decRef);
+            }
+        }
+    }
+
+    private SegmentedIndex(Path dir) throws IOException {
+        this.dir = dir;
+        this.manifest = dir.resolve(MANIFEST);
+        Files.createDirectories(dir);
+        synchronized (this) {
+            reload();
+        }
+    }
+
+    // One instance per directory and process, shared by every dbManager
+    public static SegmentedIndex open(Path dir) {
+        return instances.computeIfAbsent(dir.toAbsolutePath().normalize(), path -> {
+            try {
+                return new SegmentedIndex(path);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot open index in " + path, e);
+            }
+        });
+    }
+
+    // Writes one indexing batch as a new segment and publishes it
+    public void flush(Map<String, List<Posting>> index) throws IOException {
+        if (index.isEmpty()) return;
+        String name;
+        synchronized (this) {
+            if (manifestChanged()) reload();
+            if (!cleanedUp) {
+                deleteUnreferencedFiles();
+                cleanedUp = true;
+            }
+            name = newSegmentName();
+        }
+        long start = System.currentTimeMillis();
+        IndexSegment segment = IndexSegment.write(dir, name, index);
+        synchronized (this) {
+            List<IndexSegment> next = new ArrayList<>(segments);
+            next.add(segment);
+            publish(next);
+        }
+        System.out.printf("Flushed segment %s: %d terms, %d docs, %d KB in %d ms%n", name, segment.termCount(),
+                segment.docCount(), segment.sizeInBytes() >> 10, System.currentTimeMillis() - start);
+        merger.submit(this::mergeWhileNeeded);
+    }
+
+    // True when no segment has been written yet, e.g. for a new INDEX_DIR
+    public synchronized boolean isEmpty() {
+        return segments.isEmpty();
+    }
+
+    // Blocks until the merges queued so far are done, so the indexer can exit without losing one
+    public void waitForMerges() {
+        try {
+            merger.submit(() -> { }).get(1, TimeUnit.HOURS);
+        } catch (Exception e) {
+            System.err.println("Waiting for segment merges failed: " + e.getMessage());
+        }
+    }
+
+    // Caller must close the snapshot
+    public Snapshot acquire() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    if (manifestChanged()) reload();
+                } catch (IOException e) {
+                    System.err.println("Failed to reload index manifest, using the loaded segments: " + e.getMessage());
+                }
+            }
+            Snapshot snapshot = current;
+            if (snapshot.tryUse()) return snapshot;
+            // replaced and released between the read and the increment, take the new one
+        }
+    }
+
+    // term -> postings of the documents in docIdSet, for the terms present in the index
+    public Map<String, List<Posting>> getPostings(List<String> tokens, Set<String> docIdSet) throws IOException {
+        Map<String, List<Posting>> result = new HashMap<>();
+        try (Snapshot snapshot = acquire()) {
+            for (String term : new TreeSet<>(tokens)) {
+                List<Posting> postings = new ArrayList<>();
+                boolean found = false;
+                for (int s = 0; s < snapshot.segments.size(); s++) {
+                    IndexSegment segment = snapshot.segments.get(s);
+                    int termIndex = segment.termIndex(term);
+                    if (termIndex < 0) continue;
+                    found = true;
+                    IndexSegment.PostingList list = segment.readPostings(termIndex);
+                    BitSet shadowed = snapshot.shadowed.get(s);
+                    for (int i = 0; i < list.ordinals.length; i++) {
+                        int ordinal = list.ordinals[i];
+                        if (shadowed != null && shadowed.get(ordinal)) continue;
+                        String docId = segment.docId(ordinal);
+                        if (docIdSet.contains(docId)) {
+                            postings.add(IndexSegment.toPosting(term, docId, list, i));
+                        }
+                    }
+                }
+                if (found) result.put(term, postings);
+            }
+        }
+        return result;
+    }
+
+    // docIds per term for the terms present in the index, in term order
+    public Map<String, Set<String>> getDocIds(List<String> tokens) throws IOException {
+        Map<String, Set<String>> result = new LinkedHashMap<>();
+        try (Snapshot snapshot = acquire()) {
+            for (String term : new TreeSet<>(tokens)) {
+                Set<String> docIds = null;
+                for (int s = 0; s < snapshot.segments.size(); s++) {
+                    IndexSegment segment = snapshot.segments.get(s);
+                    int termIndex = segment.termIndex(term);
+                    if (termIndex < 0) continue;
+                    if (docIds == null) docIds = new HashSet<>();
+                    IndexSegment.PostingList list = segment.readPostings(termIndex);
+                    BitSet shadowed = snapshot.shadowed.get(s);
+                    for (int ordinal : list.ordinals) {
+                        if (shadowed == null || !shadowed.get(ordinal)) docIds.add(segment.docId(ordinal));
+                    }
+                }
+                if (docIds != null) result.put(term, docIds);
+            }
+        }
+        return result;
+    }
+
+    private void mergeWhileNeeded() {
+        try {
+            List<IndexSegment> run;
+            while ((run = findMerge()) != null) {
+                merge(run);
+            }
+        } catch (Exception e) {
+            System.err.println("Segment merge failed, the segments stay as they are: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // The oldest run of SEGMENTS_PER_TIER adjacent segments in the same size tier, lowest tier first
+    private synchronized List<IndexSegment> findMerge() {
+        List<IndexSegment> best = null;
+        int bestTier = Integer.MAX_VALUE;
+        int runStart = 0;
+        for (int i = 1; i <= segments.size(); i++) {
+            if (i < segments.size() && tier(segments.get(i)) == tier(segments.get(runStart))) continue;
+            int tier = tier(segments.get(runStart));
+            if (i - runStart >= SEGMENTS_PER_TIER && tier < bestTier) {
+                best = new ArrayList<>(segments.subList(runStart, runStart + SEGMENTS_PER_TIER));
+                bestTier = tier;
+            }
+            runStart = i;
+        }
+        return best;
+    }
+
+    private static int tier(IndexSegment segment) {
+        double ratio = (double) segment.sizeInBytes() / TIER_FLOOR_BYTES;
+        return ratio <= 1 ? 0 : (int) (Math.log(ratio) / Math.log(SEGMENTS_PER_TIER)) + 1;
+    }
+
+    // Rewrites run (oldest first) as one segment and puts it where the run was
+    private void merge(List<IndexSegment> run) throws IOException {
+        long start = System.currentTimeMillis();
+        String name;
+        synchronized (this) {
+            name = newSegmentName();
+        }
+
+        // a document is taken from the newest segment of the run that has it
+        TreeMap<String, int[]> docStats = new TreeMap<>();
+        Map<String, Integer> sourceOf = new HashMap<>();
+        for (int s = run.size() - 1; s >= 0; s--) {
+            IndexSegment segment = run.get(s);
+            for (int ordinal = 0; ordinal < segment.docCount(); ordinal++) {
+                String docId = segment.docId(ordinal);
+                if (sourceOf.putIfAbsent(docId, s) == null) {
+                    docStats.put(docId, segment.docStats(ordinal));
+                }
+            }
+        }
+        Map<String, Integer> newOrdinals = new HashMap<>(docStats.size() * 2);
+        for (String docId : docStats.keySet()) {
+            newOrdinals.put(docId, newOrdinals.size());
+        }
+        List<int[]> remap = new ArrayList<>(); // per segment: old ordinal -> new ordinal, -1 if shadowed
+        for (int s = 0; s < run.size(); s++) {
+            IndexSegment segment = run.get(s);
+            int[] map = new int[segment.docCount()];
+            for (int ordinal = 0; ordinal < map.length; ordinal++) {
+                String docId = segment.docId(ordinal);
+                map[ordinal] = sourceOf.get(docId) == s ? newOrdinals.get(docId) : -1;
+            }
+            remap.add(map);
+        }
+
+        // k-way merge of the sorted dictionaries
+        PriorityQueue<int[]> cursors = new PriorityQueue<>( // {segment, term index}
+                Comparator.comparing((int[] c) -> run.get(c[0]).term(c[1])).thenComparingInt(c -> c[0]));
+        for (int s = 0; s < run.size(); s++) {
+            if (run.get(s).termCount() > 0) cursors.add(new int[]{s, 0});
+        }
+        int width = IndexSegment.FIELDS.length;
+        try (IndexSegment.Writer writer = new IndexSegment.Writer(dir, name)) {
+            writer.writeDocs(docStats);
+            while (!cursors.isEmpty()) {
+                String term = run.get(cursors.peek()[0]).term(cursors.peek()[1]);
+                List<int[]> entries = new ArrayList<>(); // {new ordinal, freqs...}
+                while (!cursors.isEmpty() && run.get(cursors.peek()[0]).term(cursors.peek()[1]).equals(term)) {
+                    int[] cursor = cursors.poll();
+                    IndexSegment.PostingList list = run.get(cursor[0]).readPostings(cursor[1]);
+                    int[] map = remap.get(cursor[0]);
+                    for (int i = 0; i < list.ordinals.length; i++) {
+                        int ordinal = map[list.ordinals[i]];
+                        if (ordinal < 0) continue;
+                        int[] entry = new int[width + 1];
+                        entry[0] = ordinal;
+                        System.arraycopy(list.freqs, i * width, entry, 1, width);
+                        entries.add(entry);
+                    }
+                    if (++cursor[1] < run.get(cursor[0]).termCount()) cursors.add(cursor);
+                }
+                if (entries.isEmpty()) continue; // only shadowed postings left
+                entries.sort(Comparator.comparingInt(e -> e[0]));
+                int[] ords = new int[entries.size()];
+                int[] freqs = new int[entries.size() * width];
+                for (int i = 0; i < entries.size(); i++) {
+                    ords[i] = entries.get(i)[0];
+                    System.arraycopy(entries.get(i), 1, freqs, i * width, width);
+                }
+                writer.addTerm(term, new IndexSegment.PostingList(ords, freqs));
+            }
+        }
+        IndexSegment merged = IndexSegment.open(dir, name);
+
+        synchronized (this) {
+            // flushes only append, so the run is still in place
+            int from = segments.indexOf(run.get(0));
+            List<IndexSegment> next = new ArrayList<>(segments.subList(0, from));
+            next.add(merged);
+            next.addAll(segments.subList(from + run.size(), segments.size()));
+            publish(next);
+        }
+        run.forEach(segment -> segment.retire(true));
+        long bytes = run.stream().mapToLong(IndexSegment::sizeInBytes).sum();
+        System.out.printf("Merged %d segments (%d KB) into %s (%d KB) in %d ms%n", run.size(), bytes >> 10,
+                name, merged.sizeInBytes() >> 10, System.currentTimeMillis() - start);
+    }
+
+    // Writes the manifest for next and makes it the current view, caller holds the lock
+    private void publish(List<IndexSegment> next) throws IOException {
+        Path temp = dir.resolve(MANIFEST + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            out.write("generation " + nextGeneration);
+            out.newLine();
+            for (IndexSegment segment : next) {
+                out.write(segment.name);
+                out.newLine();
+            }
+        }
+        Files.move(temp, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        manifestTime = Files.getLastModifiedTime(manifest);
+        setSegments(next);
+    }
+
+    // Loads the manifest, reusing the segments that are already open. Caller holds the lock.
+    private void reload() throws IOException {
+        if (!Files.exists(manifest)) {
+            setSegments(new ArrayList<>());
+            return;
+        }
+        for (int attempt = 0; ; attempt++) {
+            FileTime time = Files.getLastModifiedTime(manifest);
+            List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            Map<String, IndexSegment> open = new HashMap<>();
+            for (IndexSegment segment : segments) open.put(segment.name, segment);
+
+            List<IndexSegment> next = new ArrayList<>();
+            List<IndexSegment> opened = new ArrayList<>();
+            try {
+                for (String line : lines.subList(1, lines.size())) {
+                    if (line.isBlank()) continue;
+                    IndexSegment segment = open.get(line);
+                    if (segment == null) {
+                        segment = IndexSegment.open(dir, line);
+                        opened.add(segment);
+                    } else if (!segment.tryIncRef()) {
+                        throw new IOException("segment " + line + " is closed");
+                    }
+                    next.add(segment);
+                }
+            } catch (IOException e) {
+                // the writer merged segments away between reading the manifest and opening them
+                for (IndexSegment segment : next) segment.decRef();
+                if (attempt >= 3) throw e;
+                continue;
+            }
+            nextGeneration = Math.max(nextGeneration, Long.parseLong(lines.get(0).substring("generation ".length())));
+            manifestTime = time;
+            // the reused segments got an extra reference above, give back the old list's ones
+            List<IndexSegment> previous = segments;
+            setSegments(next);
+            for (IndexSegment segment : previous) segment.decRef();
+            return;
+        }
+    }
+
+    // New segment list, the old snapshot is released once its last query finishes.
+    // Segments in the list carry one reference for the list and one for the current snapshot.
+    private void setSegments(List<IndexSegment> next) {
+        for (IndexSegment segment : next) {
+            segment.tryIncRef(); // owned by the snapshot
+        }
+        Snapshot old = current;
+        current = new Snapshot(next);
+        segments = next;
+        if (old != null) old.close();
+    }
+
+    private boolean manifestChanged() throws IOException {
+        if (!Files.exists(manifest)) return false;
+        return !Files.getLastModifiedTime(manifest).equals(manifestTime);
+    }
+
+    private String newSegmentName() {
+        return "_" + Long.toString(nextGeneration++, 36);
+    }
+
+    // Files of segments that an interrupted flush or merge left behind
+    private void deleteUnreferencedFiles() throws IOException {
+        Set<String> live = new HashSet<>();
+        for (IndexSegment segment : segments) live.add(segment.name);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "_*")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                int dot = fileName.lastIndexOf('.');
+                if (dot > 0 && !live.contains(fileName.substring(0, dot))) {
+                    IndexSegment.deleteFiles(dir, fileName.substring(0, dot));
+                }
+            }
+        }
+    }
+
+    // For every segment (newest first), the ordinals of documents that a newer segment also has
+    private static List<BitSet> shadowedDocs(List<IndexSegment> newestFirst) {
+        List<BitSet> result = new ArrayList<>();
+        for (int s = 0; s < newestFirst.size(); s++) {
+            IndexSegment segment = newestFirst.get(s);
+            BitSet shadowed = null;
+            for (int newer = 0; newer < s; newer++) {
+                IndexSegment other = newestFirst.get(newer);
+                // look the smaller doc table up in the larger one's map
+                if (other.docCount() <= segment.docCount()) {
+                    for (int o = 0; o < other.docCount(); o++) {
+                        int ordinal = segment.ordinal(other.docId(o));
+                        if (ordinal >= 0) {
+                            if (shadowed == null) shadowed = new BitSet(segment.docCount());
+                            shadowed.set(ordinal);
+                        }
+                    }
+                } else {
+                    for (int ordinal = 0; ordinal < segment.docCount(); ordinal++) {
+                        if (other.ordinal(segment.docId(ordinal)) >= 0) {
+                            if (shadowed == null) shadowed = new BitSet(segment.docCount());
+                            shadowed.set(ordinal);
+                        }
+                    }
+                }
+            }
+            result.add(shadowed);
+        }
+        return result;
+    }
+}
@@ -1,13 +1,12 @@
 package Indexer;
 
-import Utils.Utils;
+import Utils.Analysis;
 import Utils.Tokenizer;
 import Utils.WebDocument;
 import dbManager.dbManager;
-import opennlp.tools.stemmer.PorterStemmer;
-import opennlp.tools.tokenize.TokenizerME;
 import Utils.Posting;
 
+import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
 
@@ -26,99 +25,17 @@ public class TextIndexer implements IndexerInterface {
         indexedDocuments = new ConcurrentHashMap<>();
         tokenizer = new Tokenizer();
         dbManager = new dbManager();
+        dbManager.prepareIndexing();
         unindexedDocs = dbManager.getNonIndexedDocuments(batchSize, false);
     }
 
-    public static void indexDocument(WebDocument document, TokenizerME tokenizer) {
-        indexedDocuments.put(document.getId(), document);
-        String soup = document.getSoupedContent();
-        String title = document.getTitle();
-        List<String> H1s = document.getH1s();
-        List<String> H2s = document.getH2s();
-        // TODO Remove
-        String[] tokens = tokenizer.tokenize(soup);
-
-        // Initialize stemmer
-        PorterStemmer stemmer = new PorterStemmer();
-
-        // Process each component to get stemmed tokens
-        List<String> titleStemmedTokens = processText(title, tokenizer, stemmer);
-        List<String> h1StemmedTokens = processTextList(H1s, tokenizer, stemmer);
-        List<String> h2StemmedTokens = processTextList(H2s, tokenizer, stemmer);
-
-
-        Map<String, Map<String, Integer>> freqs = new HashMap<>();
-        int count = 0;
-        for (String token : tokens) {
-            // Clean token using regex
-            // TODO: check this regex
-            String cleaned = Utils.CLEAN_PATTERN.matcher(token.toLowerCase()).replaceAll("");
-            if (cleaned.isEmpty() || Utils.STOP_WORDS.contains(cleaned)) {
-                continue;
-            }
-
-            // Stem token
-            String stemmed = stemmer.stem(cleaned);
-
-            Map<String, Integer> postingFreqs = freqs.computeIfAbsent(stemmed, k -> new HashMap<>());
-
-            if(!postingFreqs.containsKey("title")) { // to only count it one time
-                int titleCount = Collections.frequency(titleStemmedTokens, stemmed);
-                int h1Count = Collections.frequency(h1StemmedTokens, stemmed);
-                int h2Count = Collections.frequency(h2StemmedTokens, stemmed);
-                postingFreqs.putIfAbsent("title", titleCount);
-                postingFreqs.putIfAbsent("h1", h1Count);
-                postingFreqs.putIfAbsent("h2", h2Count);
-                postingFreqs.put("body", postingFreqs.getOrDefault("body", 0) - h1Count - h2Count);
-            }
-            postingFreqs.put("body", postingFreqs.getOrDefault("body", 0) + 1);
-        }
-
-        // Update inverted index
+    // Adds the postings of document to the calling thread's buffer
+    static void indexDocument(WebDocument document, PostingsBuffer buffer) {
+        Map<String, Map<String, Integer>> freqs = new DocumentAnalyzer(Analysis.get()).analyze(document);
         for (Map.Entry<String, Map<String, Integer>> entry : freqs.entrySet()) {
             String term = entry.getKey();
-            Map<String, Integer> postingFreqs = entry.getValue();
-            Posting tInfo = new Posting(term, document.getId(), postingFreqs);
-            invertedIndex.computeIfAbsent(term, k -> new ArrayList<>());
-            boolean dup = false;
-            for (Posting tokenInfo : invertedIndex.get(term)) {
-                if(tokenInfo.getDocId().equals(document.getId())) {
-                    tokenInfo.setTokenInfo(tInfo);
-                    dup = true;
-                    break;
-                }
-            }
-            if(!dup) {
-                invertedIndex.get(term).add(tInfo);
-            }
-        }
-    }
-
-    // Helper method to process a single text string
-    private static List<String> processText(String text, TokenizerME tokenizer, PorterStemmer stemmer) {
-        List<String> stemmedTokens = new ArrayList<>();
-        if (text != null && !text.isEmpty()) {
-            String[] tokens = tokenizer.tokenize(text);
-            for (String token : tokens) {
-                // Clean token
-                String cleaned = Utils.CLEAN_PATTERN.matcher(token.toLowerCase()).replaceAll("");
-                if (!cleaned.isEmpty() && !Utils.STOP_WORDS.contains(cleaned)) {
-                    // Stem token and add to list
-                    String stemmed = stemmer.stem(cleaned);
-                    stemmedTokens.add(stemmed);
-                }
-            }
-        }
-        return stemmedTokens;
-    }
-
-    // Helper method to process a list of text strings
-    private static List<String> processTextList(List<String> textList, TokenizerME tokenizer, PorterStemmer stemmer) {
-        List<String> stemmedTokens = new ArrayList<>();
-        for (String text : textList) {
-            stemmedTokens.addAll(processText(text, tokenizer, stemmer));
+            buffer.add(term, new Posting(term, document.getId(), entry.getValue()));
         }
-        return stemmedTokens;
     }
 
     public void runIndexer() throws Exception {
@@ -137,44 +54,90 @@ public class TextIndexer implements IndexerInterface {
             }
         }
 
+        dbManager.finishIndexing();
         System.out.println("Indexing completed.");
     }
 
     private void processDocuments() throws InterruptedException {
         System.out.println("Processing text content...");
         ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        Queue<WebDocument> queue = new ConcurrentLinkedQueue<>(unindexedDocs.values());
 
         try {
-            // Submit text processing tasks
-            for (WebDocument doc : unindexedDocs.values()) {
-                executor.submit(new IndexerWorker(doc, tokenizer));
+            // Every worker fills a private buffer, nothing is shared while documents are analyzed
+            List<Future<IndexerWorker>> futures = new ArrayList<>();
+            for (int i = 0; i < numThreads; i++) {
+                futures.add(executor.submit(new IndexerWorker(queue, numThreads)));
             }
 
-            // Initiate shutdown and wait for completion
-            executor.shutdown();
-            if (!executor.awaitTermination(10, TimeUnit.MINUTES)) {
-                System.err.println("Text indexing timed out, forcing shutdown");
-                executor.shutdownNow();
+            long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(10);
+            List<IndexerWorker> finished = new ArrayList<>();
+            for (Future<IndexerWorker> future : futures) {
+                try {
+                    finished.add(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                } catch (TimeoutException e) {
+                    // documents of an unfinished worker stay unindexed and count as a failed attempt
+                    System.err.println("Text indexing timed out, forcing shutdown");
+                    future.cancel(true);
+                } catch (ExecutionException e) {
+                    System.err.println("Text indexing worker failed: " + e.getCause());
+                }
             }
-        } catch (Exception e) {
-            executor.shutdownNow();
+
+            mergeBuffers(finished, executor);
+        } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
             throw e;
+        } finally {
+            executor.shutdownNow();
         }
 
         System.out.println("Text processing completed.");
     }
 
-    private void saveDataAndPrepareNextBatch() {
-        try {
-            // Insert tokens into database
-            System.out.println("Updating tokens in database...");
-            dbManager.insertTokens(invertedIndex);
-            invertedIndex.clear();
+    // Builds the batch index from the workers' buffers, one merge task per term shard
+    private void mergeBuffers(List<IndexerWorker> workers, ExecutorService executor) throws InterruptedException {
+        List<PostingsBuffer> buffers = new ArrayList<>();
+        for (IndexerWorker worker : workers) {
+            buffers.add(worker.postings);
+            for (WebDocument document : worker.indexed) {
+                indexedDocuments.put(document.getId(), document);
+            }
+        }
 
+        List<Callable<Void>> merges = new ArrayList<>();
+        for (int shard = 0; shard < numThreads; shard++) {
+            int s = shard;
+            merges.add(() -> {
+                PostingsBuffer.mergeShard(buffers, s, invertedIndex); // shards never share a term
+                return null;
+            });
+        }
+        for (Future<Void> merge : executor.invokeAll(merges)) {
+            try {
+                merge.get();
+            } catch (ExecutionException e) {
+                System.err.println("Merging postings failed: " + e.getCause());
+            }
+        }
+    }
+
+    private void saveDataAndPrepareNextBatch() throws IOException {
+        // Insert tokens into database. A failure stops the run before the batch is marked as
+        // indexed, its documents are picked up again by the next run.
+        System.out.println("Updating tokens in database...");
+        dbManager.insertTokens(invertedIndex);
+        invertedIndex.clear();
+
+        try {
             // Mark documents as indexed
             ArrayList<String> indexedIds = new ArrayList<>(indexedDocuments.keySet());
             dbManager.markAsIndexed(indexedIds, false);
+
+            // documents that failed or timed out are retried, but only MAX_INDEX_ATTEMPTS times
+            ArrayList<String> failedIds = new ArrayList<>(unindexedDocs.keySet());
+            failedIds.removeAll(indexedDocuments.keySet());
+            dbManager.recordIndexFailures(failedIds, false);
             System.out.println("Indexing batch completed.");
             indexedDocuments.clear();
 
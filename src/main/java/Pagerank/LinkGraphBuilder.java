@@ -53,6 +53,28 @@ public class LinkGraphBuilder {
 
         waitForFutures(futures);
         System.out.println("[LinkGraphBuilder] URL to ID maps built. Total: " + urlToId.size());
+        mapAliases();
+    }
+
+    // Points redirect, canonical and near-duplicate aliases at the document they stand for,
+    // so links to any of a page's URLs reach the same node
+    private void mapAliases() {
+        Map<String, String> aliases = db.getAliases();
+        int mapped = 0;
+        for (String alias : aliases.keySet()) {
+            if (urlToId.containsKey(alias)) continue; // stored under this URL itself
+            String target = aliases.get(alias);
+            // an alias can point at another alias (redirect to a near-duplicate), follow a few hops
+            for (int hop = 0; hop < 5 && target != null && !urlToId.containsKey(target); hop++) {
+                target = aliases.get(target);
+            }
+            String id = target == null ? null : urlToId.get(target);
+            if (id != null) {
+                urlToId.put(alias, id);
+                mapped++;
+            }
+        }
+        System.out.println("[LinkGraphBuilder] Mapped " + mapped + " URL aliases onto their documents");
     }
 
     public void buildLinkGraphInMemory() {
@@ -71,6 +93,7 @@ public class LinkGraphBuilder {
                         for (String childURL : childLinks) {
                             String childID = urlToId.get(childURL);
                             if (childID == null) continue; // Skip missing pages
+                            if (childID.equals(parentID)) continue; // link to one of the page's own aliases
                             incomingLinks.computeIfAbsent(childID, k -> Collections.synchronizedList(new ArrayList<>())).add(parentID);
                         }
                     }
@@ -30,6 +30,7 @@ public class PageRankCalculator {
     private final List<Document> documents;
     private final double dampingFactor = 0.85;
     private final int iterations = 50;
+    private final double tolerance = 1e-6; // stop once the ranks move less than this in total (L1)
 
     public PageRankCalculator(Map<String, List<String>> incomingLinks, Map<String, Integer> outDegreeCache, List<Document> documents) {
         try {
@@ -49,8 +50,12 @@ public class PageRankCalculator {
         }
     }
 
+    // Starts from the crawler's OPIC estimate where documents have one, uniform otherwise.
+    // The iteration converges to the same ranks from any start, a closer start just needs fewer rounds.
     public void initializePageRanks() {
         Set<String> incomingLinkIds = incomingLinks.keySet();
+        Map<String, Double> opic = new HashMap<>();
+        double opicSum = 0.0;
         for (Document doc : documents) {
             Object id = doc.get("_id");
             if (id instanceof ObjectId) {
@@ -58,6 +63,11 @@ public class PageRankCalculator {
                 pageRanks.put(idStr, 1.0);
                 // Ensure all pages in incomingLinks have an entry
                 incomingLinks.putIfAbsent(idStr, Collections.emptyList());
+                Object estimate = doc.get("opic");
+                if (estimate instanceof Number && ((Number) estimate).doubleValue() > 0) {
+                    opic.put(idStr, ((Number) estimate).doubleValue());
+                    opicSum += ((Number) estimate).doubleValue();
+                }
             } else {
                 System.out.println("[PageRankCalculator] Skipping document with invalid _id: " + id);
             }
@@ -66,7 +76,16 @@ public class PageRankCalculator {
         for (String idStr : incomingLinkIds) {
             pageRanks.putIfAbsent(idStr, 1.0);
         }
-        System.out.println("[PageRankCalculator] Initialized " + pageRanks.size() + " pages.");
+
+        // 1/N per page, the pages with an estimate share their part of the mass by their OPIC cash
+        double uniform = 1.0 / Math.max(1, pageRanks.size());
+        double estimatedMass = uniform * opic.size();
+        for (Map.Entry<String, Double> entry : pageRanks.entrySet()) {
+            Double estimate = opic.get(entry.getKey());
+            entry.setValue(estimate == null ? uniform : estimatedMass * estimate / opicSum);
+        }
+        System.out.println("[PageRankCalculator] Initialized " + pageRanks.size() + " pages, "
+                + opic.size() + " from crawl-time OPIC estimates.");
     }
 
     public void calculatePageRanks() {
@@ -116,10 +135,19 @@ public class PageRankCalculator {
                 throw new RuntimeException(e);
             }
 
+            double delta = 0.0;
+            for (Map.Entry<String, Double> entry : newPageRanks.entrySet()) {
+                delta += Math.abs(entry.getValue() - pageRanks.getOrDefault(entry.getKey(), 0.0));
+            }
+
             pageRanks.clear();
             pageRanks.putAll(newPageRanks);
 
-            System.out.println("[PageRankCalculator] Completed iteration " + (it + 1));
+            System.out.println("[PageRankCalculator] Completed iteration " + (it + 1) + ", change " + delta);
+            if (delta < tolerance) {
+                System.out.println("[PageRankCalculator] Converged after " + (it + 1) + " iterations");
+                break;
+            }
         }
 
         // Log PageRank distribution
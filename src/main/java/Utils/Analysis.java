@@ -0,0 +1,74 @@
+package Utils;
+
+import opennlp.tools.stemmer.PorterStemmer;
+import opennlp.tools.tokenize.TokenizerME;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+// Per-thread analysis context shared by the indexer and the query processor.
+// TokenizerME and PorterStemmer are not thread safe, so each thread keeps one of each instead of
+// building them per document or per query. Stems are memoized in one bounded map for all threads:
+// the same few thousand words make up most tokens, so nearly every stem is a lookup.
+public final class Analysis {
+    private static final int STEM_CACHE_SIZE = 500_000; // new words are stemmed uncached once it is full
+
+    private static final ConcurrentHashMap<String, String> stems = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Analysis> context = ThreadLocal.withInitial(Analysis::new);
+
+    private final TokenizerME tokenizer = new TokenizerME(Tokenizer.model());
+    private final PorterStemmer stemmer = new PorterStemmer();
+    private final StringBuilder scratch = new StringBuilder(32);
+
+    private Analysis() { }
+
+    public static Analysis get() {
+        return context.get();
+    }
+
+    public String[] tokenize(String text) {
+        return tokenizer.tokenize(text);
+    }
+
+    // Stemmed index term of a token, or null for stop words and tokens without letters or digits
+    public String term(String token) {
+        String cleaned = clean(token);
+        if (cleaned.isEmpty() || Utils.STOP_WORDS.contains(cleaned)) {
+            return null;
+        }
+        String stem = stems.get(cleaned);
+        if (stem == null) {
+            stem = stemmer.stem(cleaned);
+            if (stems.size() < STEM_CACHE_SIZE) {
+                stems.putIfAbsent(cleaned, stem);
+            }
+        }
+        return stem;
+    }
+
+    // Same result as CLEAN_PATTERN over the lower-cased token. ASCII tokens are handled here
+    // without a regex, and without any allocation when they are already clean.
+    String clean(String token) {
+        int length = token.length();
+        boolean unchanged = true;
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c >= 0x80) {
+                // toLowerCase can turn some non-ASCII letters into ASCII ones, leave those to the regex
+                return Utils.CLEAN_PATTERN.matcher(token.toLowerCase()).replaceAll("");
+            }
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == ' ')) unchanged = false;
+        }
+        if (unchanged) return token;
+
+        scratch.setLength(0);
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                scratch.append((char) (c + ('a' - 'A')));
+            } else if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == ' ') {
+                scratch.append(c);
+            }
+        }
+        return scratch.toString();
+    }
+}
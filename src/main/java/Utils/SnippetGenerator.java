@@ -4,6 +4,7 @@ import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -14,19 +15,14 @@ public class SnippetGenerator {
      */
     public static String generateSnippet(String htmlContent, int maxWords) {
         Document document = Jsoup.parse(htmlContent);
-        String plainText = document.text();
-
-        String[] words = plainText.split("\\s+");
-        if (words.length <= maxWords) {
-            return plainText;
-        }
-
-        StringBuilder snippet = new StringBuilder();
-        for (int i = 0; i < maxWords; i++) {
-            snippet.append(words[i]).append(" ");
-        }
+        return firstWords(document.text(), maxWords);
+    }
 
-        return snippet.toString().trim() + "...";
+    /**
+     * Generates a basic snippet from the plain text stored by the crawler
+     */
+    public static String generateSnippetFromText(String plainText, int maxWords) {
+        return firstWords(plainText, maxWords);
     }
 
     /**
@@ -35,82 +31,117 @@ public class SnippetGenerator {
      */
     public static String getSnippet(String htmlContent, String query, int maxWords) {
         Document document = Jsoup.parse(htmlContent);
+        QueryMatcher queryMatcher = new QueryMatcher(query);
 
-        // Process the query
-        String processedQuery = query;
-        String operator = null;
-        String secondTerm = null;
-
-        // Check for quoted terms with boolean operators
-        Pattern pattern = Pattern.compile("\"([^\"]*)\"\\s*(AND|OR|NOT)\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(query);
-
-        if (matcher.find()) {
-            // Extract the first term without quotes
-            processedQuery = matcher.group(1);
-            // Get the operator
-            operator = matcher.group(2).toUpperCase();
-            // Get the second term without quotes
-            secondTerm = matcher.group(3);
-        } else {
-            // Check for simple quoted term
-            Pattern quotePattern = Pattern.compile("\"([^\"]*)\"");
-            Matcher quoteMatcher = quotePattern.matcher(query);
-            if (quoteMatcher.find()) {
-                processedQuery = quoteMatcher.group(1);
+        Elements paragraphs = document.select("p, li, div, h1, h2, h3, h4, h5, h6");
+
+        for (Element paragraph : paragraphs) {
+            String paragraphText = paragraph.text();
+            if (queryMatcher.matches(paragraphText)) {
+                return firstWords(paragraphText, maxWords);
             }
         }
 
-        // Convert to lowercase for case-insensitive matching
-        String lowerProcessedQuery = processedQuery.toLowerCase();
-        String lowerSecondTerm = secondTerm != null ? secondTerm.toLowerCase() : null;
+        return generateSnippet(htmlContent, maxWords);
+    }
 
-        Elements paragraphs = document.select("p, li, div, h1, h2, h3, h4, h5, h6");
+    /**
+     * Same as getSnippet, but on the body text and paragraph offsets ([start, end) pairs)
+     * the crawler extracted, so no HTML is parsed at query time
+     */
+    public static String getSnippet(String text, List<Integer> paragraphOffsets, String query, int maxWords) {
+        QueryMatcher queryMatcher = new QueryMatcher(query);
 
-        for (Element paragraph : paragraphs) {
-            String paragraphText = paragraph.text();
-            String lowerParagraphText = paragraphText.toLowerCase();
+        for (int i = 0; i + 1 < paragraphOffsets.size(); i += 2) {
+            int start = paragraphOffsets.get(i);
+            int end = paragraphOffsets.get(i + 1);
+            if (start < 0 || end > text.length() || start >= end) continue;
+
+            String paragraphText = text.substring(start, end);
+            if (queryMatcher.matches(paragraphText)) {
+                return firstWords(paragraphText, maxWords);
+            }
+        }
 
-            boolean matches = false;
+        return generateSnippetFromText(text, maxWords);
+    }
 
-            if (operator == null) {
-                // Simple query - just check if the paragraph contains the term
-                matches = lowerParagraphText.contains(lowerProcessedQuery);
+    private static String firstWords(String text, int maxWords) {
+        String[] words = text.split("\\s+");
+        if (words.length <= maxWords) {
+            return text;
+        }
+
+        StringBuilder snippet = new StringBuilder();
+        for (int i = 0; i < maxWords; i++) {
+            snippet.append(words[i]).append(" ");
+        }
+
+        return snippet.toString().trim() + "...";
+    }
+
+    // Query terms and boolean operator, parsed once per query rather than once per paragraph
+    private static class QueryMatcher {
+        private static final Pattern BOOLEAN_PATTERN = Pattern.compile("\"([^\"]*)\"\\s*(AND|OR|NOT)\\s*\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+        private static final Pattern QUOTE_PATTERN = Pattern.compile("\"([^\"]*)\"");
+
+        private final String lowerProcessedQuery;
+        private final String lowerSecondTerm;
+        private final String operator;
+
+        QueryMatcher(String query) {
+            // Process the query
+            String processedQuery = query;
+            String operator = null;
+            String secondTerm = null;
+
+            // Check for quoted terms with boolean operators
+            Matcher matcher = BOOLEAN_PATTERN.matcher(query);
+
+            if (matcher.find()) {
+                // Extract the first term without quotes
+                processedQuery = matcher.group(1);
+                // Get the operator
+                operator = matcher.group(2).toUpperCase();
+                // Get the second term without quotes
+                secondTerm = matcher.group(3);
             } else {
-                // Apply boolean logic
-                boolean firstTermMatch = lowerParagraphText.contains(lowerProcessedQuery);
-                boolean secondTermMatch = lowerParagraphText.contains(lowerSecondTerm);
-
-                switch (operator) {
-                    case "AND":
-                        matches = firstTermMatch && secondTermMatch;
-                        break;
-                    case "OR":
-                        matches = firstTermMatch || secondTermMatch;
-                        break;
-                    case "NOT":
-                        matches = firstTermMatch && !secondTermMatch;
-                        break;
+                // Check for simple quoted term
+                Matcher quoteMatcher = QUOTE_PATTERN.matcher(query);
+                if (quoteMatcher.find()) {
+                    processedQuery = quoteMatcher.group(1);
                 }
             }
 
-            if (matches) {
-                String[] words = paragraphText.split("\\s+");
+            // Convert to lowercase for case-insensitive matching
+            this.lowerProcessedQuery = processedQuery.toLowerCase();
+            this.lowerSecondTerm = secondTerm != null ? secondTerm.toLowerCase() : null;
+            this.operator = operator;
+        }
 
-                if (words.length <= maxWords) {
-                    return paragraphText;
-                }
+        boolean matches(String paragraphText) {
+            String lowerParagraphText = paragraphText.toLowerCase();
 
-                StringBuilder snippet = new StringBuilder();
-                for (int i = 0; i < maxWords; i++) {
-                    snippet.append(words[i]).append(" ");
-                }
+            if (operator == null) {
+                // Simple query - just check if the paragraph contains the term
+                return lowerParagraphText.contains(lowerProcessedQuery);
+            }
 
-                return snippet.toString().trim() + "...";
+            // Apply boolean logic
+            boolean firstTermMatch = lowerParagraphText.contains(lowerProcessedQuery);
+            boolean secondTermMatch = lowerParagraphText.contains(lowerSecondTerm);
+
+            switch (operator) {
+                case "AND":
+                    return firstTermMatch && secondTermMatch;
+                case "OR":
+                    return firstTermMatch || secondTermMatch;
+                case "NOT":
+                    return firstTermMatch && !secondTermMatch;
+                default:
+                    return false;
             }
         }
-
-        return generateSnippet(htmlContent, maxWords);
     }
 
     public static void main(String[] args) {
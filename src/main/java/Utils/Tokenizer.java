@@ -1,47 +1,48 @@
 package Utils;
 
-import opennlp.tools.stemmer.PorterStemmer;
 import opennlp.tools.tokenize.TokenizerME;
 import opennlp.tools.tokenize.TokenizerModel;
 
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 public class Tokenizer {
     private static TokenizerModel tmodel;
 
     public Tokenizer() throws Exception {
-        try {
-            InputStream modelInput = Tokenizer.class.getResourceAsStream("/en-token.bin");
-            assert modelInput != null;
-            tmodel = new TokenizerModel(modelInput);
-            modelInput.close();
-        }
-        catch (Exception e) {
-            e.printStackTrace();
+        model();
+    }
+
+    // The model is immutable and shared, each thread wraps it in its own TokenizerME
+    static synchronized TokenizerModel model() {
+        if (tmodel == null) {
+            try {
+                InputStream modelInput = Tokenizer.class.getResourceAsStream("/en-token.bin");
+                assert modelInput != null;
+                tmodel = new TokenizerModel(modelInput);
+                modelInput.close();
+            }
+            catch (Exception e) {
+                e.printStackTrace();
+            }
         }
+        return tmodel;
     }
 
     // Threading Safe Solution
     public TokenizerME getTokenizerME() {
-        return new TokenizerME(tmodel);
+        return new TokenizerME(model());
     }
     public List<String> Tokenize(String text) {
-        TokenizerME tokenizerMe = getTokenizerME();
-        String[] tokens = tokenizerMe.tokenize(text);
-        PorterStemmer stemmer = new PorterStemmer();
+        Analysis analysis = Analysis.get();
         List<String> stemmedList = new ArrayList<>();
 
-        for (String token : tokens) {
-            String cleaned = Utils.CLEAN_PATTERN.matcher(token.toLowerCase()).replaceAll("");
-            if (cleaned.isEmpty() || Utils.STOP_WORDS.contains(cleaned)) {
-                continue;
+        for (String token : analysis.tokenize(text)) {
+            String term = analysis.term(token);
+            if (term != null) {
+                stemmedList.add(term);
             }
-
-            String stemmed = stemmer.stem(cleaned);
-            stemmedList.add(stemmed);
         }
         return stemmedList;
     }
@@ -3,7 +3,6 @@ package Utils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -17,6 +16,9 @@ public class WebDocument {
     public int[] children;
     private List<String> images;
     private Document parsedDocument; // Cache the parsed document for better performance
+    // Extracted by the crawler, null for documents crawled before extraction was stored
+    private String text;
+    private List<String> h1s, h2s;
     private double tfscore, totalscore;
 
     public WebDocument(String docId, String url, String title, String html, Double popularity, int[] children) {
@@ -53,6 +55,13 @@ public class WebDocument {
         this.images = images;
     }
 
+    // Uses the crawler's extraction instead of parsing the HTML
+    public void setExtraction(String text, List<String> h1s, List<String> h2s) {
+        this.text = text;
+        this.h1s = h1s;
+        this.h2s = h2s;
+    }
+
     // Get the parsed document, creating it if necessary
     private Document getParsedDocument() {
         if (parsedDocument == null && html != null) {
@@ -85,38 +94,38 @@ public class WebDocument {
 
     // Get content of all h1 elements
     public List<String> getH1s() {
-        List<String> h1Texts = new ArrayList<>();
-        Document doc = getParsedDocument();
-
-        if (doc != null) {
-            Elements h1Elements = doc.body().select("h1");
-            for (Element h1 : h1Elements) {
-                h1Texts.add(h1.text());
-            }
-        }
-        return h1Texts;
+        if (h1s == null) extractFromHtml();
+        return h1s;
     }
 
     // Get content of all h2 elements
     public List<String> getH2s() {
-        List<String> h2Texts = new ArrayList<>();
-        Document doc = getParsedDocument();
-
-        if (doc != null) {
-            Elements h2Elements = doc.body().select("h2");
-            for (Element h2 : h2Elements) {
-                h2Texts.add(h2.text());
-            }
-        }
-        return h2Texts;
+        if (h2s == null) extractFromHtml();
+        return h2s;
     }
 
     public String getSoupedContent() {
+        if (text == null) extractFromHtml();
+        return text;
+    }
+
+    // Documents crawled before the extraction was stored: the text and both heading lists
+    // come from one parse and one selection over the HTML
+    private void extractFromHtml() {
+        List<String> h1Texts = new ArrayList<>();
+        List<String> h2Texts = new ArrayList<>();
+        String bodyText = "";
         Document doc = getParsedDocument();
+
         if (doc != null) {
-            return doc.text().replaceAll("\\s+", " ").trim();
+            for (Element heading : doc.body().select("h1, h2")) {
+                (heading.normalName().equals("h1") ? h1Texts : h2Texts).add(heading.text());
+            }
+            bodyText = doc.text().replaceAll("\\s+", " ").trim();
         }
-        return "";
+        if (text == null) text = bodyText;
+        if (h1s == null) h1s = h1Texts;
+        if (h2s == null) h2s = h2Texts;
     }
 
     public List<String> getImages() {
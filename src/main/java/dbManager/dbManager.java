@@ -1,5 +1,7 @@
 package dbManager;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
@@ -9,6 +11,7 @@ import java.util.stream.Collectors;
 import Utils.SnippetGenerator;
 import com.mongodb.MongoException;
 import org.bson.Document;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 
 import com.mongodb.ConnectionString;
@@ -19,6 +22,7 @@ import com.mongodb.client.*;
 import com.mongodb.client.model.*;
 
 import Backend.Image;
+import Indexer.SegmentedIndex;
 import Utils.Posting;
 import Utils.WebDocument;
 import io.github.cdimascio.dotenv.Dotenv;
@@ -27,8 +31,13 @@ public class dbManager {
     private static final Dotenv dotenv = Dotenv.load();
     private static final String CONNECTION_STRING = dotenv.get("MONGO_URL");
     private static final String IMAGES_CONNECTION_STRING = dotenv.get("MONGO_IMAGES_URL");
+    // directory of the on-disk index segments, the postings stay in the tokens collection when unset.
+    // Pointing it at an empty directory makes the next indexer run re-index every document (prepareIndexing).
+    private static final String INDEX_DIR = dotenv.get("INDEX_DIR");
 
-    private static final String DB_NAME = "search_engine";
+    public static final String DEFAULT_DB_NAME = "search_engine";
+    // MONGO_DB_NAME (-D property or .env) points a run at another database, e.g. a scratch one for benchmarks
+    private static final String DB_NAME = System.getProperty("MONGO_DB_NAME", dotenv.get("MONGO_DB_NAME", DEFAULT_DB_NAME));
     private static final String COLLECTION_NAME = "documents";
 
     private final MongoClient mongoClient;
@@ -38,15 +47,32 @@ public class dbManager {
     private MongoDatabase imagesDatabase;
     private final MongoCollection<Document> docsCollections;
     private final MongoCollection<Document> crawlerStateCollection;
+    private final MongoCollection<Document> crawlerJournalCollection;
+    private final MongoCollection<Document> aliasesCollection;
+    private final MongoCollection<Document> crawlerOutboxCollection;
     private final MongoCollection<Document> imageCollection;
     private final MongoCollection<Document> queryCollection;
+    private final SegmentedIndex segments; // null when INDEX_DIR is unset
 
     private static final int BULK_WRITE_BATCH_SIZE = 2500;
+    private static final int CRAWLER_STATE_CHUNK_SIZE = 20000; // URLs per crawler state / journal document
+    private static final int MAX_INDEX_ATTEMPTS = 3; // failed batches before a document is given up on
 
     public dbManager() {
+        this("");
+    }
+
+    // crawlerStateSuffix separates the crawler state of the shards of a distributed crawl
+    public dbManager(String crawlerStateSuffix) {
+        this(crawlerStateSuffix, "");
+    }
+
+    // databaseSuffix moves everything to another database, e.g. "_replay" so a WARC replay
+    // doesn't store its pages a second time next to the crawl it replays
+    public dbManager(String crawlerStateSuffix, String databaseSuffix) {
 
         mongoClient = MongoClients.create(CONNECTION_STRING);
-        MongoDatabase database = mongoClient.getDatabase(DB_NAME);
+        MongoDatabase database = mongoClient.getDatabase(DB_NAME + databaseSuffix);
 
         imagesMongoClient = MongoClients.create(IMAGES_CONNECTION_STRING);
 
@@ -55,10 +81,14 @@ public class dbManager {
         tokensCollection = database.getCollection("tokens");  // Renamed for proper casing
         queryCollection = database.getCollection("queries");
 
-        imagesDatabase = imagesMongoClient.getDatabase(DB_NAME);
+        imagesDatabase = imagesMongoClient.getDatabase(DB_NAME + databaseSuffix);
         imageCollection = imagesDatabase.getCollection("images");
 
-        crawlerStateCollection= database.getCollection("crawler_state");
+        crawlerStateCollection= database.getCollection("crawler_state" + crawlerStateSuffix);
+        crawlerJournalCollection = database.getCollection("crawler_journal" + crawlerStateSuffix);
+        crawlerOutboxCollection = database.getCollection("crawler_outbox");
+        aliasesCollection = database.getCollection("aliases");
+        segments = INDEX_DIR == null || INDEX_DIR.isBlank() ? null : SegmentedIndex.open(Paths.get(INDEX_DIR));
         System.out.println("Connected to MongoDB Atlas.");
         addIndexes();
     }
@@ -67,53 +97,307 @@ public class dbManager {
         queryCollection.createIndex(Indexes.ascending("_id")); // Already exists for _id
         queryCollection.createIndex(Indexes.text("_id")); // For text search
         queryCollection.createIndex(Indexes.ascending("normalized"));
+        crawlerJournalCollection.createIndex(Indexes.ascending("seq", "part"));
+        docsCollections.createIndex(Indexes.ascending("url"));
+        docsCollections.createIndex(Indexes.ascending("nextVisit"));
+        crawlerOutboxCollection.createIndex(Indexes.ascending("shard"));
     }
 
-    public void insertDocuments(List<Document> documents) {
+    // Inserts documents and returns the ones that were stored, all of them unless the insert failed
+    public List<Document> insertDocuments(List<Document> documents) {
+        if (documents.isEmpty()) return documents;
         try {
-            if (!documents.isEmpty()) {
-                docsCollections.insertMany(documents);
-                System.out.println("Inserted " + documents.size() + " documents");
+            // unordered: one bad document doesn't stop the rest of the batch
+            docsCollections.insertMany(documents, new InsertManyOptions().ordered(false));
+            System.out.println("Inserted " + documents.size() + " documents");
+            return documents;
+        } catch (MongoBulkWriteException e) {
+            Set<Integer> failed = new HashSet<>();
+            for (BulkWriteError error : e.getWriteErrors()) {
+                failed.add(error.getIndex());
             }
+            List<Document> stored = new ArrayList<>();
+            for (int i = 0; i < documents.size(); i++) {
+                if (!failed.contains(i)) stored.add(documents.get(i));
+            }
+            System.err.println("Failed to insert " + failed.size() + " of " + documents.size() + " documents: " + e.getMessage());
+            return stored;
         } catch (Exception e) {
             System.err.println("Failed to insert documents: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    // Aliases are keyed by the alias URL, so recording one twice just refreshes it
+    public void insertAliases(List<Document> aliases) {
+        if (aliases.isEmpty()) return;
+        try {
+            List<WriteModel<Document>> writes = new ArrayList<>();
+            for (Document alias : aliases) {
+                writes.add(new ReplaceOneModel<>(Filters.eq("_id", alias.get("_id")), alias, new ReplaceOptions().upsert(true)));
+            }
+            aliasesCollection.bulkWrite(writes, new BulkWriteOptions().ordered(false));
+            System.out.println("Recorded " + aliases.size() + " URL aliases");
+        } catch (Exception e) {
+            System.err.println("Failed to insert aliases: " + e.getMessage());
+        }
+    }
+
+    // alias URL -> URL of the stored document it stands for (redirects, canonicals, near-duplicates)
+    public Map<String, String> getAliases() {
+        Map<String, String> aliases = new HashMap<>();
+        for (Document alias : aliasesCollection.find().projection(new Document("aliasOf", 1))) {
+            Object url = alias.get("_id");
+            String aliasOf = alias.getString("aliasOf");
+            if (url instanceof String && aliasOf != null) {
+                aliases.put((String) url, aliasOf);
+            }
+        }
+        return aliases;
+    }
+
+    // Applies recrawl results, each update is {url, fields, unset} and only sets the given fields
+    // and removes the unset ones
+    public void updateCrawledDocuments(List<Document> updates) {
+        if (updates.isEmpty()) return;
+        try {
+            List<WriteModel<Document>> writes = new ArrayList<>();
+            List<String> rewritten = new ArrayList<>();
+            for (Document update : updates) {
+                if (update.getBoolean("remove", false)) {
+                    // the page is gone (404/410). Its postings stay, but getDocumentsByIdsForRanking
+                    // finds no document for them, so the rankers never return it
+                    writes.add(new DeleteOneModel<>(Filters.eq("url", update.getString("url"))));
+                    continue;
+                }
+                if (update.get("fields", Document.class).containsKey("indexed")) {
+                    rewritten.add(update.getString("url"));
+                }
+                List<Bson> changes = new ArrayList<>();
+                changes.add(new Document("$set", update.get("fields", Document.class)));
+                for (String field : update.getList("unset", String.class, Collections.emptyList())) {
+                    changes.add(Updates.unset(field));
+                }
+                writes.add(new UpdateOneModel<>(
+                        Filters.eq("url", update.getString("url")),
+                        Updates.combine(changes)));
+            }
+            // before indexed=false is written, so the indexer can't re-index a page whose old postings are then dropped
+            if (segments == null) {
+                removeTokenPostings(rewritten);
+            }
+            for (int i = 0; i < writes.size(); i += BULK_WRITE_BATCH_SIZE) {
+                docsCollections.bulkWrite(writes.subList(i, Math.min(i + BULK_WRITE_BATCH_SIZE, writes.size())),
+                        new BulkWriteOptions().ordered(false));
+            }
+            System.out.println("Updated " + updates.size() + " recrawled documents");
+        } catch (Exception e) {
+            System.err.println("Failed to update recrawled documents: " + e.getMessage());
+        }
+    }
+
+    // Drops the tokens collection postings of the documents stored under urls. insertTokens only sets
+    // docs.<docId> for the terms a page has now, so without this a rewritten page would keep matching
+    // the terms its new version lost. The segment index needs none of this, newer segments shadow old ones.
+    private void removeTokenPostings(List<String> urls) {
+        if (urls.isEmpty()) return;
+        List<String> docIds = new ArrayList<>();
+        for (Document doc : docsCollections.find(Filters.in("url", urls)).projection(Projections.include("_id"))) {
+            docIds.add(doc.getObjectId("_id").toString());
+        }
+        // one pass over the tokens collection per chunk of documents
+        for (int i = 0; i < docIds.size(); i += BULK_WRITE_BATCH_SIZE) {
+            List<Bson> present = new ArrayList<>();
+            List<Bson> unsets = new ArrayList<>();
+            for (String docId : docIds.subList(i, Math.min(i + BULK_WRITE_BATCH_SIZE, docIds.size()))) {
+                present.add(Filters.exists("docs." + docId));
+                unsets.add(Updates.unset("docs." + docId));
+            }
+            tokensCollection.updateMany(Filters.or(present.toArray(new Bson[0])), Updates.combine(unsets));
+        }
+        System.out.println("Removed the old postings of " + docIds.size() + " rewritten documents");
+    }
+
+    // Stored pages whose revisit time has passed, most overdue first.
+    // Documents crawled before revisit scheduling have no nextVisit and are always due.
+    public List<Document> getDocumentsDueForRecrawl(long now, int limit) {
+        return docsCollections.find(Filters.or(
+                        Filters.lte("nextVisit", now),
+                        Filters.exists("nextVisit", false)))
+                .projection(Projections.include("url", "etag", "lastModified", "contentHash", "revisitInterval"))
+                .sort(Sorts.ascending("nextVisit"))
+                .limit(limit)
+                .into(new ArrayList<>());
+    }
+
+    // Queues links found by shard fromShard for the crawler process that owns them
+    public boolean forwardUrls(int toShard, int fromShard, List<String> urls) {
+        try {
+            List<Document> batches = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i += CRAWLER_STATE_CHUNK_SIZE) {
+                batches.add(new Document("shard", toShard)
+                        .append("from", fromShard)
+                        .append("urls", urls.subList(i, Math.min(i + CRAWLER_STATE_CHUNK_SIZE, urls.size())))
+                        .append("createdAt", System.currentTimeMillis()));
+            }
+            crawlerOutboxCollection.insertMany(batches);
+            return true;
+        } catch (Exception e) {
+            System.err.println("Failed to forward links to shard " + toShard + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Returns up to maxBatches link batches ({_id, urls}) addressed to shard, oldest first.
+    // They stay in the outbox until deleteForwardedBatches, so a crash before the receiver has
+    // recorded them means they are read again. Only the owning process reads its shard.
+    public List<Document> readForwardedBatches(int shard, int maxBatches) {
+        try {
+            return crawlerOutboxCollection.find(Filters.eq("shard", shard))
+                    .projection(Projections.include("urls"))
+                    .sort(Sorts.ascending("createdAt"))
+                    .limit(maxBatches)
+                    .into(new ArrayList<>());
+        } catch (Exception e) {
+            System.err.println("Failed to read forwarded links: " + e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    public void deleteForwardedBatches(List<Object> ids) {
+        if (ids.isEmpty()) return;
+        try {
+            crawlerOutboxCollection.deleteMany(Filters.in("_id", ids));
+        } catch (Exception e) {
+            // read again on the next exchange, the receiver drops links it has already seen
+            System.err.println("Failed to delete forwarded links: " + e.getMessage());
+        }
+    }
+
+    // Appends one crawler journal entry, split into parts so no document nears the BSON size limit
+    public boolean appendCrawlerJournal(long seq, List<String> adds, List<String> visits, int pageDelta) {
+        try {
+            List<Document> parts = new ArrayList<>();
+            int part = 0;
+            int addIndex = 0;
+            int visitIndex = 0;
+            do {
+                int addEnd = Math.min(adds.size(), addIndex + CRAWLER_STATE_CHUNK_SIZE);
+                int visitEnd = Math.min(visits.size(), visitIndex + CRAWLER_STATE_CHUNK_SIZE);
+                parts.add(new Document("seq", seq)
+                        .append("part", part++)
+                        .append("adds", new ArrayList<>(adds.subList(addIndex, addEnd)))
+                        .append("visits", new ArrayList<>(visits.subList(visitIndex, visitEnd)))
+                        .append("pageDelta", part == 1 ? pageDelta : 0)
+                        .append("timestamp", System.currentTimeMillis()));
+                addIndex = addEnd;
+                visitIndex = visitEnd;
+            } while (addIndex < adds.size() || visitIndex < visits.size());
+
+            crawlerJournalCollection.insertMany(parts);
+            return true;
+        } catch (Exception e) {
+            System.err.println("Failed to append crawler journal: " + e.getMessage());
+            return false;
+        }
+    }
+
+    public List<Document> loadCrawlerJournal(long afterSeq) {
+        try {
+            return crawlerJournalCollection.find(Filters.gt("seq", afterSeq))
+                    .sort(Sorts.ascending("seq", "part"))
+                    .into(new ArrayList<>());
+        } catch (Exception e) {
+            System.err.println("Failed to load crawler journal: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    public void truncateCrawlerJournal(long uptoSeq) {
+        try {
+            crawlerJournalCollection.deleteMany(Filters.lte("seq", uptoSeq));
+        } catch (Exception e) {
+            System.err.println("Failed to truncate crawler journal: " + e.getMessage());
         }
     }
 
-    public void saveCrawlerState(Queue<String> urlsToCrawl, Set<String> visited, int pageCount) {
+    // Writes the snapshot chunks first and switches the header to them last,
+    // so a crash half way keeps the previous snapshot usable
+    public boolean saveCrawlerSnapshot(long seq, List<String> urlsToCrawl, Collection<String> visited, int pageCount) {
         try {
-            Document stateDoc = new Document("_id", "crawler_state")
-                    .append("urlsToCrawl", new ArrayList<>(urlsToCrawl))
-                    .append("visited", new ArrayList<>(visited))
+            List<String> visitedList = new ArrayList<>(visited);
+            String prefix = "snapshot_" + seq + "_";
+            crawlerStateCollection.deleteMany(Filters.regex("_id", "^" + Pattern.quote(prefix), ""));
+
+            List<Document> chunks = new ArrayList<>();
+            int parts = 0;
+            int queueIndex = 0;
+            int visitedIndex = 0;
+            do {
+                int queueEnd = Math.min(urlsToCrawl.size(), queueIndex + CRAWLER_STATE_CHUNK_SIZE);
+                int visitedEnd = Math.min(visitedList.size(), visitedIndex + CRAWLER_STATE_CHUNK_SIZE);
+                chunks.add(new Document("_id", prefix + parts)
+                        .append("seq", seq)
+                        .append("urlsToCrawl", new ArrayList<>(urlsToCrawl.subList(queueIndex, queueEnd)))
+                        .append("visited", new ArrayList<>(visitedList.subList(visitedIndex, visitedEnd))));
+                parts++;
+                queueIndex = queueEnd;
+                visitedIndex = visitedEnd;
+            } while (queueIndex < urlsToCrawl.size() || visitedIndex < visitedList.size());
+            crawlerStateCollection.insertMany(chunks);
+
+            Document header = new Document("_id", "crawler_state")
+                    .append("seq", seq)
+                    .append("parts", parts)
                     .append("pageCount", pageCount)
                     .append("timestamp", System.currentTimeMillis());
+            crawlerStateCollection.replaceOne(Filters.eq("_id", "crawler_state"), header, new ReplaceOptions().upsert(true));
 
-            crawlerStateCollection.replaceOne(
-                    Filters.eq("_id", "crawler_state"),
-                    stateDoc,
-                    new ReplaceOptions().upsert(true)
-            );
-            System.out.println("Saved crawler state: " + pageCount + " pages, " +
-                    urlsToCrawl.size() + " URLs to crawl, " + visited.size() + " visited");
+            // drop chunks of older snapshots
+            crawlerStateCollection.deleteMany(Filters.and(
+                    Filters.regex("_id", "^snapshot_", ""),
+                    Filters.lt("seq", seq)));
+
+            System.out.println("Saved crawler snapshot " + seq + ": " + pageCount + " pages, " +
+                    urlsToCrawl.size() + " URLs to crawl, " + visitedList.size() + " visited");
+            return true;
         } catch (Exception e) {
-            System.err.println("Failed to save crawler state: " + e.getMessage());
+            System.err.println("Failed to save crawler snapshot: " + e.getMessage());
+            return false;
         }
     }
 
-    public Map<String, Object> loadCrawlerState() {
+    public Map<String, Object> loadCrawlerSnapshot() {
         try {
-            Document stateDoc = crawlerStateCollection.find(Filters.eq("_id", "crawler_state")).first();
-            if (stateDoc == null) {
+            Document header = crawlerStateCollection.find(Filters.eq("_id", "crawler_state")).first();
+            if (header == null) {
                 System.out.println("No crawler state found, starting fresh");
                 return null;
             }
+
             Map<String, Object> state = new HashMap<>();
-            state.put("urlsToCrawl", stateDoc.getList("urlsToCrawl", String.class, new ArrayList<>()));
-            state.put("visited", stateDoc.getList("visited", String.class, new ArrayList<>()));
-            state.put("pageCount", stateDoc.getInteger("pageCount", 0));
-            System.out.println("Loaded crawler state: " + state.get("pageCount") + " pages, " +
-                    ((List<?>) state.get("urlsToCrawl")).size() + " URLs to crawl, " +
-                    ((List<?>) state.get("visited")).size() + " visited");
+            List<String> urlsToCrawl = new ArrayList<>();
+            List<String> visited = new ArrayList<>();
+
+            if (!header.containsKey("seq")) {
+                // single document state written before the journal existed
+                urlsToCrawl.addAll(header.getList("urlsToCrawl", String.class, new ArrayList<>()));
+                visited.addAll(header.getList("visited", String.class, new ArrayList<>()));
+                state.put("seq", 0L);
+            } else {
+                long seq = header.getLong("seq");
+                for (Document chunk : crawlerStateCollection.find(Filters.regex("_id", "^" + Pattern.quote("snapshot_" + seq + "_"), ""))) {
+                    urlsToCrawl.addAll(chunk.getList("urlsToCrawl", String.class, new ArrayList<>()));
+                    visited.addAll(chunk.getList("visited", String.class, new ArrayList<>()));
+                }
+                state.put("seq", seq);
+            }
+
+            state.put("urlsToCrawl", urlsToCrawl);
+            state.put("visited", visited);
+            state.put("pageCount", header.getInteger("pageCount", 0));
+            System.out.println("Loaded crawler snapshot " + state.get("seq") + ": " + state.get("pageCount") +
+                    " pages, " + urlsToCrawl.size() + " URLs to crawl, " + visited.size() + " visited");
             return state;
         } catch (Exception e) {
             System.err.println("Failed to load crawler state: " + e.getMessage());
@@ -132,16 +416,21 @@ public class dbManager {
                 .append("_id", 1)
                 .append("url", 1)
                 .append("title", 1)
-                .append("content", 1);
+                .append("content", 1)
+                .append("text", 1)
+                .append("h1s", 1)
+                .append("h2s", 1);
 
         // Only include the images field if isImages is true
         if (isImages) {
             projection.append("images", 1);
         }
 
-        FindIterable<Document> results = docsCollections.find(
-                        Filters.eq(flag_filter, false)
-                )
+        // documents that failed MAX_INDEX_ATTEMPTS batches are left out, or the indexer would loop on them forever
+        FindIterable<Document> results = docsCollections.find(Filters.and(
+                        Filters.eq(flag_filter, false),
+                        Filters.not(Filters.gte(flag_filter + "_attempts", MAX_INDEX_ATTEMPTS))
+                ))
                 .projection(projection)
                 .limit(limit);
 
@@ -154,6 +443,11 @@ public class dbManager {
             List<String> images = isImages ? doc.getList("images", String.class) : null;
 
             WebDocument webDoc = new WebDocument(id, url, title, content, images);
+            // documents from older crawls have no extraction and are parsed by WebDocument instead
+            String text = doc.getString("text");
+            if (text != null) {
+                webDoc.setExtraction(text, doc.getList("h1s", String.class), doc.getList("h2s", String.class));
+            }
             docs.put(id, webDoc);
         }
 
@@ -175,7 +469,35 @@ public class dbManager {
         docsCollections.updateMany(filter, update);
     }
 
-    public void insertTokens(Map<String, List<Posting>> invertedIndex) {
+    // Counts a failed indexing attempt for documents of a batch that were not indexed
+    public void recordIndexFailures(List<String> ids, boolean isImages) {
+        if (ids.isEmpty()) return;
+        List<ObjectId> objectIds = ids.stream()
+                .map(ObjectId::new)
+                .collect(Collectors.toList());
+
+        String attempts_field = (isImages ? "images_indexed" : "indexed") + "_attempts";
+        System.out.println("Recording a failed indexing attempt for " + ids.size() + " documents");
+        docsCollections.updateMany(Filters.in("_id", objectIds), Updates.inc(attempts_field, 1));
+    }
+
+    // A new or emptied INDEX_DIR has none of the postings of documents indexed before (into the
+    // tokens collection or an index that was since deleted), so every document is queued again
+    public void prepareIndexing() {
+        if (segments == null || !segments.isEmpty()) return;
+        long reset = docsCollections.updateMany(Filters.eq("indexed", true),
+                Updates.combine(Updates.set("indexed", false), Updates.unset("indexed_attempts"))).getModifiedCount();
+        if (reset > 0) {
+            System.out.println("Index in " + INDEX_DIR + " is empty, " + reset + " documents queued for re-indexing");
+        }
+    }
+
+    // Throws when the postings could not be stored, the batch must not be marked as indexed then
+    public void insertTokens(Map<String, List<Posting>> invertedIndex) throws IOException {
+        if (segments != null) {
+            segments.flush(invertedIndex);
+            return;
+        }
         try {
             // List to hold bulk write operations
             List<UpdateOneModel<Document>> bulkUpdates = new ArrayList<>();
@@ -232,11 +554,35 @@ public class dbManager {
             }
         } catch (Exception e) {
             System.err.println("Error during bulk write: " + e.getMessage());
-            e.printStackTrace();
+            throw new IOException("Failed to write token postings", e);
+        }
+    }
+
+    // Lets the background segment merges finish before the indexer exits
+    public void finishIndexing() {
+        if (segments != null) {
+            segments.waitForMerges();
         }
     }
 
     public Set<String> getDocIdsForTokens(List<String> tokens, boolean intersect) {
+        if (segments != null) {
+            try {
+                Set<String> docIdSet = new HashSet<>();
+                for (Set<String> docIds : segments.getDocIds(tokens).values()) {
+                    if (intersect && !docIdSet.isEmpty()) {
+                        docIdSet.retainAll(docIds);
+                    } else {
+                        docIdSet.addAll(docIds);
+                    }
+                }
+                return docIdSet;
+            } catch (Exception e) {
+                System.err.println("Error retrieving docIds: " + e.getMessage());
+                e.printStackTrace();
+                return new HashSet<>();
+            }
+        }
         try {
             // Use a Set to ensure unique docIds
             Set<String> docIdSet = new HashSet<>();
@@ -270,6 +616,15 @@ public class dbManager {
     }
 
     public Map<String, List<Posting>> getPostingsForTokens(List<String> tokens, Set<String> docIdSet) {
+        if (segments != null) {
+            try {
+                return segments.getPostings(tokens, docIdSet);
+            } catch (Exception e) {
+                System.err.println("Error retrieving postings: " + e.getMessage());
+                e.printStackTrace();
+                return new HashMap<>();
+            }
+        }
         try {
             // Use a Set to ensure unique docIds
             Map<String, List<Posting>> tokenToTokenInfos = new HashMap<>(); // we need to return this as well
@@ -371,7 +726,29 @@ public class dbManager {
                 .collect(Collectors.toList());
 
         System.out.println("WHERE IS MY CANDODO 2");
+        // the crawler's extraction is enough for a snippet, the HTML is only read for older documents
+        List<ObjectId> withoutText = new ArrayList<>();
         for (Document doc : docsCollections.find(Filters.in("_id", objectIds)).projection(
+                Projections.include("_id", "text", "paragraphs", "images"))) {
+            ObjectId objectId = doc.getObjectId("_id");
+            String text = doc.getString("text");
+            if (text == null) {
+                withoutText.add(objectId);
+                continue;
+            }
+            String id = objectId.toString();
+            List<String> images = doc.getList("images", String.class);
+            List<Integer> paragraphs = doc.getList("paragraphs", Integer.class, Collections.emptyList());
+            String snippet = SnippetGenerator.getSnippet(text, paragraphs, query, snippet_length);
+            WebDocument webdoc = new WebDocument(id, "", "", snippet, images);
+
+            docs.put(id , webdoc);
+        }
+
+        if (withoutText.isEmpty()) {
+            return docs;
+        }
+        for (Document doc : docsCollections.find(Filters.in("_id", withoutText)).projection(
                 Projections.include("_id", "content", "images"))) {
             String id = doc.getObjectId("_id").toString();
             String content = doc.getString("content");
@@ -386,7 +763,7 @@ public class dbManager {
     }
 
     public List<Document> getDocumentsForGraphBuilder() {
-        Document projection = new Document("_id", 1).append("url", 1).append("links", 1);
+        Document projection = new Document("_id", 1).append("url", 1).append("links", 1).append("opic", 1);
         return docsCollections.find().projection(projection).into(new ArrayList<>());
     }
     public void savePageRanks(Map<String, Double> pageRanks) {